@@ -20,12 +20,17 @@ import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.DataInputStream;
 import java.io.DataOutputStream;
+import java.io.EOFException;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InterruptedIOException;
 import java.io.RandomAccessFile;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
@@ -110,6 +115,19 @@ private LRUCache<Long, Page> pageCache;
 private boolean enablePageCaching=true;
 // How many pages will we keep in the cache?
 private int pageCacheSize = 100;
+// Should page reads go through memory mapped segments of the page file?
+// Pages missing from the page cache are then copied out of the mapped
+// segments instead of a seek and read, the page cache itself is unchanged.
+private boolean enableMappedReads=false;
+// The size of each memory mapped read segment.
+private int mappedSegmentSize = 1024*1024*64;
+// The memory mapped read segments, only used if enableMappedReads==true
+private ArrayList<MappedByteBuffer> mappedSegments;
+
+// Page read statistics
+private final AtomicLong pageCacheHits = new AtomicLong();
+private final AtomicLong pageCacheMisses = new AtomicLong();
+private final AtomicLong pageReads = new AtomicLong();
 
 // Should first log the page write to the recovery buffer? Avoids partial
 // page write failures..
@@ -303,6 +321,9 @@ File file = getMainPageFile();
 IOHelper.mkdirs(file.getParentFile());
 writeFile = new RandomAccessFile(file, "rw");
 readFile = new RandomAccessFile(file, "r");
+if( enableMappedReads ) {
+mappedSegments = new ArrayList<MappedByteBuffer>();
+}
 
 if (readFile.length() > 0) {
 // Load the page size setting cause that can't change once the file is created.
@@ -402,6 +423,7 @@ freeList.clear();
 if( pageCache!=null ) {
 pageCache=null;
 }
+releaseMappedSegments();
 synchronized(writes) {
 writes.clear();
 }
@@ -711,6 +733,59 @@ assertNotLoaded();
 this.writeBatchSize = writeBatchSize;
 }
 
+/**
+* @return true if page reads are served from memory mapped segments of the page file
+*/
+public boolean isEnableMappedReads() {
+return enableMappedReads;
+}
+
+/**
+* Allows page reads to be served from memory mapped segments of the page file instead of
+* seeking and reading the file.  This only changes how page misses are read, pages are still
+* cached on heap as configured by the page cache settings.
+*/
+public void setEnableMappedReads(boolean enableMappedReads) {
+assertNotLoaded();
+this.enableMappedReads = enableMappedReads;
+}
+
+public int getMappedSegmentSize() {
+return mappedSegmentSize;
+}
+
+public void setMappedSegmentSize(int mappedSegmentSize) {
+assertNotLoaded();
+this.mappedSegmentSize = mappedSegmentSize;
+}
+
+/**
+* @return the number of page loads served by the write or read page cache.
+*/
+public long getPageCacheHits() {
+return pageCacheHits.get();
+}
+
+/**
+* @return the number of page loads not found in the write or read page cache.
+*/
+public long getPageCacheMisses() {
+return pageCacheMisses.get();
+}
+
+/**
+* @return the number of pages read from the page file.
+*/
+public long getPageReads() {
+return pageReads.get();
+}
+
+public void resetStatistics() {
+pageCacheHits.set(0);
+pageCacheMisses.set(0);
+pageReads.set(0);
+}
+
 ///////////////////////////////////////////////////////////////////
 // Package Protected Methods exposed to Transaction
 ///////////////////////////////////////////////////////////////////
@@ -783,9 +858,83 @@ return nextTxid.incrementAndGet();
 }
 
 void readPage(long pageId, byte[] data) throws IOException {
+pageReads.incrementAndGet();
+if( enableMappedReads ) {
+readMapped(toOffset(pageId), data);
+} else {
 readFile.seek(toOffset(pageId));
 readFile.readFully(data);
 }
+}
+
+/**
+* Reads from the memory mapped segments of the page file. Segments are mapped
+* lazily and re-mapped when the page file has grown past the mapped region.
+*/
+private void readMapped(long offset, byte[] data) throws IOException {
+int pos = 0;
+while( pos < data.length ) {
+int segmentIndex = (int)(offset / mappedSegmentSize);
+int segmentOffset = (int)(offset % mappedSegmentSize);
+int length = Math.min(data.length-pos, mappedSegmentSize-segmentOffset);
+ByteBuffer segment = getMappedSegment(segmentIndex, segmentOffset+length).duplicate();
+segment.position(segmentOffset);
+segment.get(data, pos, length);
+pos += length;
+offset += length;
+}
+}
+
+private MappedByteBuffer getMappedSegment(int segmentIndex, int requiredLength) throws IOException {
+while( mappedSegments.size() <= segmentIndex ) {
+mappedSegments.add(null);
+}
+MappedByteBuffer segment = mappedSegments.get(segmentIndex);
+if( segment == null || segment.capacity() < requiredLength ) {
+long start = (long)segmentIndex * mappedSegmentSize;
+long size = Math.min(mappedSegmentSize, readFile.length()-start);
+if( size < requiredLength ) {
+throw new EOFException("Page read past the end of the page file at offset: "+(start+requiredLength));
+}
+MappedByteBuffer previous = segment;
+segment = readFile.getChannel().map(FileChannel.MapMode.READ_ONLY, start, size);
+mappedSegments.set(segmentIndex, segment);
+if( previous != null ) {
+unmap(previous);
+}
+}
+return segment;
+}
+
+private void releaseMappedSegments() {
+if( mappedSegments != null ) {
+for (MappedByteBuffer segment : mappedSegments) {
+if( segment != null ) {
+unmap(segment);
+}
+}
+mappedSegments = null;
+}
+}
+
+/**
+* Releases a mapping right away instead of waiting for the buffer to be garbage collected,
+* which could keep the page file mapped long after it was re-mapped or closed.
+*/
+private static void unmap(MappedByteBuffer buffer) {
+try {
+Method cleanerMethod = buffer.getClass().getMethod("cleaner");
+cleanerMethod.setAccessible(true);
+Object cleaner = cleanerMethod.invoke(buffer);
+if( cleaner != null ) {
+Method cleanMethod = cleaner.getClass().getMethod("clean");
+cleanMethod.setAccessible(true);
+cleanMethod.invoke(cleaner);
+}
+} catch (Throwable e) {
+LOG.debug("Could not unmap a page file segment, it is released when garbage collected: " + e);
+}
+}
 
 public void freePage(long pageId) {
 freeList.add(pageId);
@@ -867,6 +1016,7 @@ return capacityUsed >= 80 || checkpointLatch!=null;
 synchronized(writes) {
 PageWrite pageWrite = writes.get(pageId);
 if( pageWrite != null ) {
+pageCacheHits.incrementAndGet();
 return pageWrite.page;
 }
 }
@@ -875,6 +1025,11 @@ Page<T> result = null;
 if (enablePageCaching) {
 result = pageCache.get(pageId);
 }
+if( result != null ) {
+pageCacheHits.incrementAndGet();
+} else {
+pageCacheMisses.incrementAndGet();
+}
 return result;
 }
 
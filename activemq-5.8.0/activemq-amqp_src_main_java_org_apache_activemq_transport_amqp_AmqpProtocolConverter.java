@@ -68,6 +68,11 @@ private static final UnsignedInteger DURABLE = new UnsignedInteger(2);
 private static final Symbol DURABLE_SUBSCRIPTION_ENDED = Symbol.getSymbol("DURABLE_SUBSCRIPTION_ENDED");
 
 int prefetch = 100;
+// upper bound for the prefetch a consumer link's credit can ask for
+private int maxPrefetch = 1000;
+// number of credit checks after which a consumer's prefetch is lowered to
+// the most credit the peer granted in that time
+private static final int PREFETCH_CREDIT_SAMPLES = 100;
 
 ReentrantLock lock = new ReentrantLock();
 TransportImpl protonTransport = new TransportImpl();
@@ -91,6 +96,22 @@ System.out.println(String.format("%s | SENT: %s", amqpTransport.getRemoteAddress
 }
 }
 
+/**
+* @return the largest prefetch the credit of a consumer link can ask for
+*/
+public int getMaxPrefetch() {
+return maxPrefetch;
+}
+
+/**
+* Sets the largest prefetch the credit of a consumer link can ask for.
+*
+* @param maxPrefetch
+*/
+public void setMaxPrefetch(int maxPrefetch) {
+this.maxPrefetch = maxPrefetch;
+}
+
 void pumpProtonToSocket() {
 try {
 int size = 1024 * 64;
@@ -216,6 +237,7 @@ listener.onDelivery(delivery);
 }
 delivery = delivery.getWorkNext();
 }
+flushAcks();
 
 link = protonConnection.linkHead(ACTIVE_STATE, CLOSED_STATE);
 while (link != null) {
@@ -660,6 +682,12 @@ private final ConsumerId consumerId;
 private final Sender sender;
 private boolean presettle;
 private boolean closed;
+// set once ActiveMQ has added the consumer
+private ActiveMQDestination destination;
+private int prefetchSize = prefetch;
+// most credit seen since the prefetch was last changed or checked
+private int peakCredit;
+private int creditSamples;
 
 public ConsumerContext(ConsumerId consumerId, Sender sender) {
 this.consumerId = consumerId;
@@ -696,16 +724,33 @@ tagCache.add(data);
 @Override
 public void onClose() throws Exception {
 if( !closed ) {
+flushAcks();
 closed = true;
 sendToActiveMQ(new RemoveInfo(consumerId), null);
 }
 }
 
 LinkedList<MessageDispatch> outbound = new LinkedList<MessageDispatch>();
+// messages in the order ActiveMQ dispatched them until they are acked, the
+// value is the delivery once the peer accepted it
+LinkedHashMap<MessageId, Delivery> unacked = new LinkedHashMap<MessageId, Delivery>();
 
 // called when the connection receives a JMS message from ActiveMQ
 public void onMessageDispatch(MessageDispatch md) throws Exception {
 if( !closed ) {
+if( md.getMessage()!=null ) {
+unacked.put(md.getMessage().getMessageId(), null);
+}
+outbound.addLast(md);
+pumpOutbound();
+AmqpProtocolConverter.this.flushAcks();
+pumpProtonToSocket();
+}
+}
+
+// sends a message ActiveMQ still considers dispatched to the peer again
+private void redeliver(MessageDispatch md) throws Exception {
+if( !closed ) {
 outbound.addLast(md);
 pumpOutbound();
 pumpProtonToSocket();
@@ -724,7 +769,7 @@ if( sent > 0 ) {
 currentBuffer.moveHead(sent);
 if( currentBuffer.length == 0 ) {
 if( presettle ) {
-settle(currentDelivery, MessageAck.INDIVIDUAL_ACK_TYPE);
+accept(currentDelivery);
 } else {
 sender.advance();
 }
@@ -780,9 +825,10 @@ checkinTag(tag);
 if( ackType == -1) {
 // we are going to settle, but redeliver.. we we won't yet ack to ActiveMQ
 delivery.settle();
-onMessageDispatch((MessageDispatch) delivery.getContext());
+redeliver((MessageDispatch) delivery.getContext());
 } else {
 MessageDispatch md = (MessageDispatch) delivery.getContext();
+unacked.remove(md.getMessage().getMessageId());
 MessageAck ack = new MessageAck();
 ack.setConsumerId(consumerId);
 ack.setFirstMessageId(md.getMessage().getMessageId());
@@ -816,11 +862,131 @@ pumpProtonToSocket();
 }
 }
 
+/**
+* Records an accepted delivery, its ack is sent by the next flushAcks().
+*/
+private void accept(Delivery delivery) throws Exception {
+MessageDispatch md = (MessageDispatch) delivery.getContext();
+MessageId messageId = md.getMessage().getMessageId();
+if( delivery.getRemoteState() instanceof TransactionalState || !unacked.containsKey(messageId) ) {
+settle(delivery, MessageAck.INDIVIDUAL_ACK_TYPE);
+return;
+}
+unacked.put(messageId, delivery);
+pendingAcks.add(this);
+}
+
+/**
+* Acks the accepted deliveries at the head of the dispatch order with one
+* standard ack, ActiveMQ acks everything in that range. Deliveries accepted
+* after a message that is still outstanding are acked one at a time.
+*/
+void flushAcks() throws Exception {
+final ArrayList<Delivery> range = new ArrayList<Delivery>();
+ActiveMQDestination rangeDestination = null;
+Iterator<Delivery> iterator = unacked.values().iterator();
+while (iterator.hasNext()) {
+Delivery delivery = iterator.next();
+if( delivery == null ) {
+break;
+}
+ActiveMQDestination dest = ((MessageDispatch) delivery.getContext()).getDestination();
+if( rangeDestination != null && !rangeDestination.equals(dest) ) {
+break;
+}
+rangeDestination = dest;
+range.add(delivery);
+iterator.remove();
+}
+if( range.size() == 1 ) {
+settle(range.get(0), MessageAck.INDIVIDUAL_ACK_TYPE);
+} else if( range.size() > 1 ) {
+MessageDispatch first = (MessageDispatch) range.get(0).getContext();
+MessageDispatch last = (MessageDispatch) range.get(range.size() - 1).getContext();
+MessageAck ack = new MessageAck();
+ack.setConsumerId(consumerId);
+ack.setFirstMessageId(first.getMessage().getMessageId());
+ack.setLastMessageId(last.getMessage().getMessageId());
+ack.setMessageCount(range.size());
+ack.setAckType(MessageAck.STANDARD_ACK_TYPE);
+ack.setDestination(rangeDestination);
+for (Delivery delivery : range) {
+byte[] tag = delivery.getTag();
+if( tag !=null && tag.length>0 ) {
+checkinTag(tag);
+}
+}
+sendToActiveMQ(ack, new ResponseHandler() {
+@Override
+public void onResponse(AmqpProtocolConverter converter, Response response) throws IOException {
+if (response.isException()) {
+Throwable exception = ((ExceptionResponse) response).getException();
+exception.printStackTrace();
+sender.close();
+} else {
+for (Delivery delivery : range) {
+delivery.settle();
+}
+}
+pumpProtonToSocket();
+}
+});
+}
+ArrayList<Delivery> remaining = new ArrayList<Delivery>();
+for (Delivery delivery : unacked.values()) {
+if( delivery != null ) {
+remaining.add(delivery);
+}
+}
+for (Delivery delivery : remaining) {
+settle(delivery, MessageAck.INDIVIDUAL_ACK_TYPE);
+}
+}
+
 @Override
 public void drainCheck() {
 if( outbound.isEmpty() ) {
 sender.drained();
 }
+updatePrefetch();
+}
+
+/**
+* Lets the credit the peer grants on the link drive the prefetch of the
+* ActiveMQ consumer, up to maxPrefetch. The prefetch grows as soon as more
+* credit is granted. As credit drops to zero between flows while messages
+* are sent, it is only lowered to the most credit seen once that stayed
+* below the prefetch for PREFETCH_CREDIT_SAMPLES checks.
+*/
+private void updatePrefetch() {
+if( closed || destination == null ) {
+return;
+}
+int credit = Math.min(sender.getCredit(), maxPrefetch);
+if( credit > prefetchSize ) {
+setPrefetch(credit);
+return;
+}
+peakCredit = Math.max(peakCredit, credit);
+if( ++creditSamples >= PREFETCH_CREDIT_SAMPLES ) {
+if( peakCredit < prefetchSize ) {
+setPrefetch(Math.max(peakCredit, 1));
+} else {
+peakCredit = 0;
+creditSamples = 0;
+}
+}
+}
+
+private void setPrefetch(int size) {
+prefetchSize = size;
+peakCredit = 0;
+creditSamples = 0;
+ConsumerControl control = new ConsumerControl();
+control.setConsumerId(consumerId);
+control.setDestination(destination);
+control.setPrefetch(size);
+sendToActiveMQ(control, null);
 }
 
 @Override
@@ -831,7 +997,7 @@ if( state instanceof Accepted ) {
 if( !delivery.remotelySettled() ) {
 delivery.disposition(new Accepted());
 }
-settle(delivery, MessageAck.INDIVIDUAL_ACK_TYPE);
+accept(delivery);
 } else if( state instanceof Rejected) {
 // re-deliver /w incremented delivery counter.
 md.setRedeliveryCounter(md.getRedeliveryCounter() + 1);
@@ -860,13 +1026,31 @@ pumpOutbound();
 }
 
 private final ConcurrentHashMap<ConsumerId, ConsumerContext> subscriptionsByConsumerId = new ConcurrentHashMap<ConsumerId, ConsumerContext>();
+// consumers holding accepted deliveries that have not been acked yet
+private final LinkedHashSet<ConsumerContext> pendingAcks = new LinkedHashSet<ConsumerContext>();
+
+/**
+* Sends the acks for the deliveries settled since the last flush, so the
+* dispositions of one frame reach ActiveMQ as one ack per consumer where
+* they allow it.
+*/
+void flushAcks() throws Exception {
+if (pendingAcks.isEmpty()) {
+return;
+}
+ArrayList<ConsumerContext> consumers = new ArrayList<ConsumerContext>(pendingAcks);
+pendingAcks.clear();
+for (ConsumerContext consumerContext : consumers) {
+consumerContext.flushAcks();
+}
+}
 
 void onSenderOpen(final Sender sender, AmqpSessionContext sessionContext) {
 org.apache.qpid.proton.amqp.messaging.Source source = (org.apache.qpid.proton.amqp.messaging.Source)sender.getRemoteSource();
 
 try {
 final ConsumerId id = new ConsumerId(sessionContext.sessionId, sessionContext.nextConsumerId++);
-ConsumerContext consumerContext = new ConsumerContext(id, sender);
+final ConsumerContext consumerContext = new ConsumerContext(id, sender);
 sender.setContext(consumerContext);
 
 String selector = null;
@@ -937,9 +1121,8 @@ dest = createDestination(source);
 subscriptionsByConsumerId.put(id, consumerContext);
 ConsumerInfo consumerInfo = new ConsumerInfo(id);
 consumerInfo.setSelector(selector);
-consumerInfo.setNoRangeAcks(true);
 consumerInfo.setDestination(dest);
-consumerInfo.setPrefetchSize(100);
+consumerInfo.setPrefetchSize(consumerContext.prefetchSize);
 consumerInfo.setDispatchAsync(true);
 if( source.getDistributionMode() == COPY && dest.isQueue() ) {
 consumerInfo.setBrowser(true);
@@ -956,6 +1139,7 @@ consumerInfo.setNoLocal(true);
 }
 }
 
+final ConsumerInfo addedConsumerInfo = consumerInfo;
 sendToActiveMQ(consumerInfo, new ResponseHandler() {
 public void onResponse(AmqpProtocolConverter converter, Response response) throws IOException {
 if (response.isException()) {
@@ -969,6 +1153,7 @@ name = "amqp:invalid-field";
 subscriptionsByConsumerId.remove(id);
 sender.close();
 } else {
+consumerContext.destination = addedConsumerInfo.getDestination();
 sender.open();
 }
 pumpProtonToSocket();
@@ -43,6 +43,7 @@ import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
 
 import javax.annotation.PostConstruct;
 import javax.annotation.PreDestroy;
@@ -193,6 +194,8 @@ private BrokerId brokerId;
 private DestinationInterceptor[] destinationInterceptors;
 private ActiveMQDestination[] destinations;
 private PListStore tempDataStore;
+// bytes of the memory mapped cursor spools in the tmp data directory
+private final AtomicLong mappedSpoolUsage = new AtomicLong();
 private int persistenceThreadPriority = Thread.MAX_PRIORITY;
 private boolean useLocalHostBrokerName;
 private final CountDownLatch stoppedLatch = new CountDownLatch(1);
@@ -985,6 +988,21 @@ public void setTmpDataDirectory(File tmpDataDirectory) {
 this.tmpDataDirectory = tmpDataDirectory;
 }
 
+/**
+* @return the bytes of the memory mapped cursor spools, which count against
+*         the temp usage limit together with the temp data store
+*/
+public long getMappedSpoolUsage() {
+return mappedSpoolUsage.get();
+}
+
+/**
+* Charges a change in the size of a memory mapped cursor spool.
+*/
+public void adjustMappedSpoolUsage(long delta) {
+mappedSpoolUsage.addAndGet(delta);
+}
+
 public void setPersistenceFactory(PersistenceAdapterFactory persistenceFactory) {
 this.persistenceFactory = persistenceFactory;
 }
@@ -1022,6 +1040,7 @@ if (systemUsage == null) {
 
 systemUsage = new SystemUsage("Main", getPersistenceAdapter(), getTempDataStore(), getJobSchedulerStore());
 systemUsage.setExecutor(getExecutor());
+systemUsage.getMemoryUsage().setScheduler(getScheduler());
 systemUsage.getMemoryUsage().setLimit(1024 * 1024 * 64); // 64 MB
 systemUsage.getTempUsage().setLimit(1024L * 1024 * 1024 * 50); // 50 GB
 systemUsage.getStoreUsage().setLimit(1024L * 1024 * 1024 * 100); // 100 GB
@@ -1043,6 +1062,9 @@ this.systemUsage = memoryManager;
 if (this.systemUsage.getExecutor()==null) {
 this.systemUsage.setExecutor(getExecutor());
 }
+if (this.systemUsage.getMemoryUsage().getScheduler()==null) {
+this.systemUsage.getMemoryUsage().setScheduler(getScheduler());
+}
 addService(this.systemUsage);
 }
 
@@ -887,6 +887,27 @@ sub.onFailure();
 }
 }
 
+/**
+* Queues a batch of commands for asynchronous dispatch, the dispatch queue is
+* locked and the task runner woken once for the whole batch.
+*/
+public void dispatchAsync(List<? extends Command> messages) {
+if (taskRunner == null || stopping.get()) {
+for (Command message : messages) {
+dispatchAsync(message);
+}
+return;
+}
+synchronized (dispatchQueue) {
+dispatchQueue.addAll(messages);
+}
+try {
+taskRunner.wakeup();
+} catch (InterruptedException e) {
+Thread.currentThread().interrupt();
+}
+}
+
 protected void processDispatch(Command command) throws IOException {
 MessageDispatch messageDispatch = (MessageDispatch) (command.isMessageDispatch() ? command : null);
 try {
@@ -0,0 +1,120 @@
+/**
+* Licensed to the Apache Software Foundation (ASF) under one or more
+* contributor license agreements.  See the NOTICE file distributed with
+* this work for additional information regarding copyright ownership.
+* The ASF licenses this file to You under the Apache License, Version 2.0
+* (the "License"); you may not use this file except in compliance with
+* the License.  You may obtain a copy of the License at
+*
+*      http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+package org.apache.activemq.broker.region;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.activemq.command.MessageId;
+import org.apache.activemq.util.LongLinkedHashMap;
+
+/**
+* Insertion ordered index of the messages a Queue has paged in.
+*
+* Messages are keyed by their broker sequence id so adds and acks do not
+* need to hash the full MessageId. Messages without a broker sequence id,
+* such as non persistent ones, or whose id is already taken, are kept in a
+* MessageId keyed map as before.
+* This class is not thread safe, the Queue guards it with its
+* pagedInMessagesLock.
+*/
+class PagedInMessageMap {
+
+private final LongLinkedHashMap<QueueMessageReference> messages = new LongLinkedHashMap<QueueMessageReference>();
+private final Map<MessageId, QueueMessageReference> unsequenced = new LinkedHashMap<MessageId, QueueMessageReference>();
+
+public QueueMessageReference get(MessageId id) {
+long sequenceId = id.getBrokerSequenceId();
+if (sequenceId > 0) {
+QueueMessageReference reference = messages.get(sequenceId);
+if (reference != null && isSameMessage(reference, id)) {
+return reference;
+}
+}
+return unsequenced.isEmpty() ? null : unsequenced.get(id);
+}
+
+/**
+* Finds a message by an id that may not carry the broker sequence id the
+* message is stored under, such as one parsed from a JMS message id or
+* sent by another broker. Falls back to comparing the ids of all messages,
+* so it is only meant for management and master slave paths.
+*/
+public QueueMessageReference find(MessageId id) {
+QueueMessageReference reference = get(id);
+if (reference == null && !messages.isEmpty()) {
+for (QueueMessageReference candidate : messages.values()) {
+if (id.equals(candidate.getMessageId())) {
+return candidate;
+}
+}
+}
+return reference;
+}
+
+public boolean containsKey(MessageId id) {
+return get(id) != null;
+}
+
+public void put(MessageId id, QueueMessageReference reference) {
+long sequenceId = id.getBrokerSequenceId();
+if (sequenceId > 0 && !messages.containsKey(sequenceId)) {
+messages.put(sequenceId, reference);
+} else {
+unsequenced.put(id, reference);
+}
+}
+
+public QueueMessageReference remove(MessageId id) {
+long sequenceId = id.getBrokerSequenceId();
+if (sequenceId > 0) {
+QueueMessageReference reference = messages.get(sequenceId);
+if (reference != null && isSameMessage(reference, id)) {
+return messages.remove(sequenceId);
+}
+}
+return unsequenced.isEmpty() ? null : unsequenced.remove(id);
+}
+
+public int size() {
+return messages.size() + unsequenced.size();
+}
+
+/**
+* @return the messages keyed by broker sequence id in the order they were
+*         paged in, followed by the others
+*/
+public Collection<QueueMessageReference> values() {
+if (unsequenced.isEmpty()) {
+return messages.values();
+}
+if (messages.isEmpty()) {
+return unsequenced.values();
+}
+List<QueueMessageReference> result = new ArrayList<QueueMessageReference>(size());
+result.addAll(messages.values());
+result.addAll(unsequenced.values());
+return result;
+}
+
+private static boolean isSameMessage(QueueMessageReference reference, MessageId id) {
+return reference.getMessageId() == id || reference.getMessageId().equals(id);
+}
+}
@@ -104,7 +104,7 @@ protected final List<Subscription> consumers = new ArrayList<Subscription>(50);
 private final ReentrantReadWriteLock messagesLock = new ReentrantReadWriteLock();
 protected PendingMessageCursor messages;
 private final ReentrantReadWriteLock pagedInMessagesLock = new ReentrantReadWriteLock();
-private final LinkedHashMap<MessageId, QueueMessageReference> pagedInMessages = new LinkedHashMap<MessageId, QueueMessageReference>();
+private final PagedInMessageMap pagedInMessages = new PagedInMessageMap();
 // Messages that are paged in but have not yet been targeted at a
 // subscription
 private final ReentrantReadWriteLock pagedInPendingDispatchLock = new ReentrantReadWriteLock();
@@ -1115,7 +1115,7 @@ public QueueMessageReference getMessage(String id) {
 MessageId msgId = new MessageId(id);
 pagedInMessagesLock.readLock().lock();
 try{
-QueueMessageReference ref = this.pagedInMessages.get(msgId);
+QueueMessageReference ref = this.pagedInMessages.find(msgId);
 if (ref != null) {
 return ref;
 }
@@ -2076,7 +2076,7 @@ pagedInPendingDispatchLock.writeLock().unlock();
 if (message == null) {
 pagedInMessagesLock.readLock().lock();
 try {
-message = pagedInMessages.get(messageId);
+message = pagedInMessages.find(messageId);
 } finally {
 pagedInMessagesLock.readLock().unlock();
 }
@@ -68,6 +68,7 @@ private final TopicMessageStore topicStore;
 protected final CopyOnWriteArrayList<Subscription> consumers = new CopyOnWriteArrayList<Subscription>();
 private final ReentrantReadWriteLock dispatchLock = new ReentrantReadWriteLock();
 private DispatchPolicy dispatchPolicy = new SimpleDispatchPolicy();
+private volatile TopicSelectorIndex selectorIndex;
 private SubscriptionRecoveryPolicy subscriptionRecoveryPolicy;
 private final ConcurrentHashMap<SubscriptionKey, DurableTopicSubscription> durableSubscribers = new ConcurrentHashMap<SubscriptionKey, DurableTopicSubscription>();
 private final TaskRunner taskRunner;
@@ -131,6 +132,7 @@ synchronized (consumers) {
 if (!consumers.contains(sub)){
 sub.add(context, this);
 consumers.add(sub);
+consumersChanged();
 applyRecovery=true;
 super.addSubscription(context, sub);
 }
@@ -147,6 +149,7 @@ synchronized (consumers) {
 if (!consumers.contains(sub)){
 sub.add(context, this);
 consumers.add(sub);
+consumersChanged();
 super.addSubscription(context, sub);
 }
 }
@@ -175,6 +178,7 @@ break;
 
 if (!hasSubscription) {
 consumers.add(sub);
+consumersChanged();
 }
 }
 }
@@ -187,6 +191,7 @@ if (!sub.getConsumerInfo().isDurable()) {
 super.removeSubscription(context, sub, lastDeliveredSequenceId);
 synchronized (consumers) {
 consumers.remove(sub);
+consumersChanged();
 }
 }
 sub.remove(context, this);
@@ -201,6 +206,7 @@ destinationStatistics.getConsumers().decrement();
 // deactivate and remove
 removed.deactivate(false);
 consumers.remove(removed);
+consumersChanged();
 }
 }
 }
@@ -229,11 +235,13 @@ topicStore.deleteSubscription(clientId, subscriptionName);
 info = null;
 synchronized (consumers) {
 consumers.remove(subscription);
+consumersChanged();
 }
 } else {
 synchronized (consumers) {
 if (!consumers.contains(subscription)) {
 consumers.add(subscription);
+consumersChanged();
 }
 }
 }
@@ -251,6 +259,7 @@ info.setSubscribedDestination(subscription.getConsumerInfo().getDestination());
 // This destination might be a pattern
 synchronized (consumers) {
 consumers.add(subscription);
+consumersChanged();
 topicStore.addSubsciption(info, subscription.getConsumerInfo().isRetroactive());
 }
 }
@@ -293,6 +302,7 @@ dispatchLock.writeLock().unlock();
 public void deactivate(ConnectionContext context, DurableTopicSubscription sub) throws Exception {
 synchronized (consumers) {
 consumers.remove(sub);
+consumersChanged();
 }
 sub.remove(context, this);
 }
@@ -650,6 +660,21 @@ public void setDispatchPolicy(DispatchPolicy dispatchPolicy) {
 this.dispatchPolicy = dispatchPolicy;
 }
 
+public boolean isUseSelectorIndex() {
+return selectorIndex != null;
+}
+
+/**
+* Index the selectors of the subscriptions that test a message property for
+* equality with string literals, so a message is only matched against the
+* subscriptions that can select it. The index follows subscriptions being
+* added and removed, a selector changed on a live subscription is picked up
+* the next time the subscriptions of the topic change.
+*/
+public void setUseSelectorIndex(boolean useSelectorIndex) {
+this.selectorIndex = useSelectorIndex ? new TopicSelectorIndex() : null;
+}
+
 public SubscriptionRecoveryPolicy getSubscriptionRecoveryPolicy() {
 return subscriptionRecoveryPolicy;
 }
@@ -664,6 +689,13 @@ this.subscriptionRecoveryPolicy = subscriptionRecoveryPolicy;
 public final void wakeup() {
 }
 
+private void consumersChanged() {
+TopicSelectorIndex index = selectorIndex;
+if (index != null) {
+index.invalidate();
+}
+}
+
 protected void dispatch(final ConnectionContext context, Message message) throws Exception {
 // AMQ-2586: Better to leave this stat at zero than to give the user
 // misleading metrics.
@@ -685,7 +717,16 @@ return;
 msgContext = context.getMessageEvaluationContext();
 msgContext.setDestination(destination);
 msgContext.setMessageReference(message);
-if (!dispatchPolicy.dispatch(message, msgContext, consumers)) {
+List<Subscription> targets = consumers;
+TopicSelectorIndex index = selectorIndex;
+if (index != null) {
+List<Subscription> skipped = new ArrayList<Subscription>(0);
+targets = index.select(consumers, message, skipped);
+for (Subscription sub : skipped) {
+sub.unmatched(message);
+}
+}
+if (!dispatchPolicy.dispatch(message, msgContext, targets)) {
 onMessageWithNoConsumers(context, message);
 }
 
@@ -0,0 +1,314 @@
+/**
+* Licensed to the Apache Software Foundation (ASF) under one or more
+* contributor license agreements.  See the NOTICE file distributed with
+* this work for additional information regarding copyright ownership.
+* The ASF licenses this file to You under the Apache License, Version 2.0
+* (the "License"); you may not use this file except in compliance with
+* the License.  You may obtain a copy of the License at
+*
+*      http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+package org.apache.activemq.broker.region;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.activemq.command.Message;
+
+/**
+* An inverted index over the selectors of the subscriptions of a Topic.
+*
+* A selector that starts with an equality or IN test of a message property
+* against string literals, optionally followed by AND and further terms, can
+* only match messages whose property has one of those values. Such
+* subscriptions are filed under the property and each value, so a message
+* only needs one property lookup per indexed property to find them. All
+* other subscriptions are always candidates. Candidates still have to pass
+* Subscription.matches(), the index only rules out subscriptions that cannot
+* match.
+*/
+class TopicSelectorIndex {
+
+private final AtomicInteger version = new AtomicInteger();
+private final Map<String, Predicate> predicates = new HashMap<String, Predicate>();
+private volatile Snapshot snapshot;
+
+/**
+* Must be called whenever the subscriptions of the topic change.
+*/
+void invalidate() {
+version.incrementAndGet();
+}
+
+/**
+* @param consumers the subscriptions of the topic
+* @param message the message to dispatch
+* @param skipped receives the subscriptions that were ruled out
+* @return the subscriptions that may match the message, in the order of
+*         consumers
+*/
+List<Subscription> select(List<Subscription> consumers, Message message, List<Subscription> skipped) throws IOException {
+Snapshot current = snapshot;
+int currentVersion = version.get();
+if (current == null || current.version != currentVersion) {
+current = rebuild(consumers, currentVersion);
+}
+if (current.byProperty.isEmpty()) {
+return consumers;
+}
+IdentityHashMap<Subscription, Boolean> selected = new IdentityHashMap<Subscription, Boolean>();
+List<Subscription> candidates = new ArrayList<Subscription>(current.unindexed);
+for (Map.Entry<String, Map<String, List<Subscription>>> entry : current.byProperty.entrySet()) {
+Object value = message.getProperty(entry.getKey());
+if (value == null) {
+// an equality test against null is never true
+continue;
+}
+if (value instanceof String) {
+List<Subscription> subscriptions = entry.getValue().get(value);
+if (subscriptions != null) {
+addAll(candidates, selected, subscriptions);
+}
+} else {
+// leave conversions of other types to the selector itself
+for (List<Subscription> subscriptions : entry.getValue().values()) {
+addAll(candidates, selected, subscriptions);
+}
+}
+}
+if (!current.indexedDurable.isEmpty()) {
+for (Subscription subscription : current.indexedDurable) {
+if (!selected.containsKey(subscription)) {
+skipped.add(subscription);
+}
+}
+}
+final Map<Subscription, Integer> positions = current.positions;
+Collections.sort(candidates, new Comparator<Subscription>() {
+public int compare(Subscription s1, Subscription s2) {
+return positions.get(s1).compareTo(positions.get(s2));
+}
+});
+return candidates;
+}
+
+private static void addAll(List<Subscription> candidates, Map<Subscription, Boolean> selected, Collection<Subscription> subscriptions) {
+for (Subscription subscription : subscriptions) {
+if (selected.put(subscription, Boolean.TRUE) == null) {
+candidates.add(subscription);
+}
+}
+}
+
+private synchronized Snapshot rebuild(List<Subscription> consumers, int currentVersion) {
+Snapshot current = snapshot;
+if (current != null && current.version == currentVersion) {
+return current;
+}
+Snapshot result = new Snapshot(currentVersion);
+Map<String, Predicate> used = new HashMap<String, Predicate>();
+int position = 0;
+for (Subscription subscription : consumers) {
+result.positions.put(subscription, position++);
+String selector = subscription.getConsumerInfo() != null ? subscription.getConsumerInfo().getSelector() : null;
+Predicate predicate = null;
+if (selector != null) {
+predicate = predicates.get(selector);
+if (predicate == null && !predicates.containsKey(selector)) {
+predicate = Predicate.parse(selector);
+}
+used.put(selector, predicate);
+}
+if (predicate == null) {
+result.unindexed.add(subscription);
+continue;
+}
+Map<String, List<Subscription>> byValue = result.byProperty.get(predicate.property);
+if (byValue == null) {
+byValue = new HashMap<String, List<Subscription>>();
+result.byProperty.put(predicate.property, byValue);
+}
+for (String value : predicate.values) {
+List<Subscription> subscriptions = byValue.get(value);
+if (subscriptions == null) {
+subscriptions = new ArrayList<Subscription>();
+byValue.put(value, subscriptions);
+}
+subscriptions.add(subscription);
+}
+if (subscription.getConsumerInfo().isDurable()) {
+result.indexedDurable.add(subscription);
+}
+}
+// only keep the parsed form of selectors still in use
+predicates.clear();
+predicates.putAll(used);
+snapshot = result;
+return result;
+}
+
+private static final class Snapshot {
+final int version;
+final List<Subscription> unindexed = new ArrayList<Subscription>();
+final List<Subscription> indexedDurable = new ArrayList<Subscription>();
+final Map<String, Map<String, List<Subscription>>> byProperty = new HashMap<String, Map<String, List<Subscription>>>();
+final Map<Subscription, Integer> positions = new IdentityHashMap<Subscription, Integer>();
+
+Snapshot(int version) {
+this.version = version;
+}
+}
+
+/**
+* A property that must equal one of a set of string literals for a selector
+* to match.
+*/
+static final class Predicate {
+final String property;
+final String[] values;
+
+Predicate(String property, String[] values) {
+this.property = property;
+this.values = values;
+}
+
+/**
+* @return the predicate the selector starts with or null when the selector
+*         does not have an indexable form
+*/
+static Predicate parse(String selector) {
+List<String> tokens = tokenize(selector);
+if (tokens == null || tokens.size() < 3) {
+return null;
+}
+String property = tokens.get(0);
+if (!isIdentifier(property) || isKeyword(property) || property.startsWith("JMS")) {
+return null;
+}
+List<String> values = new ArrayList<String>();
+int next;
+if (tokens.get(1).equals("=")) {
+if (!isString(tokens.get(2))) {
+return null;
+}
+values.add(unquote(tokens.get(2)));
+next = 3;
+} else if (tokens.get(1).equalsIgnoreCase("IN") && tokens.size() > 3 && tokens.get(2).equals("(")) {
+next = 3;
+while (true) {
+if (next >= tokens.size() || !isString(tokens.get(next))) {
+return null;
+}
+values.add(unquote(tokens.get(next++)));
+if (next >= tokens.size()) {
+return null;
+}
+String separator = tokens.get(next++);
+if (separator.equals(")")) {
+break;
+}
+if (!separator.equals(",")) {
+return null;
+}
+}
+} else {
+return null;
+}
+if (next < tokens.size()) {
+// the rest must be ANDed with the predicate, a top level OR would
+// let the selector match without it
+if (!tokens.get(next).equalsIgnoreCase("AND")) {
+return null;
+}
+int depth = 0;
+for (int i = next + 1; i < tokens.size(); i++) {
+String token = tokens.get(i);
+if (token.equals("(")) {
+depth++;
+} else if (token.equals(")")) {
+depth--;
+} else if (depth == 0 && token.equalsIgnoreCase("OR")) {
+return null;
+}
+}
+}
+return new Predicate(property, values.toArray(new String[values.size()]));
+}
+
+/**
+* Splits a selector into identifiers and keywords, string literals, and
+* single character symbols.
+*
+* @return the tokens or null when the selector has an unterminated literal
+*/
+private static List<String> tokenize(String selector) {
+List<String> tokens = new ArrayList<String>();
+int length = selector.length();
+int i = 0;
+while (i < length) {
+char c = selector.charAt(i);
+if (Character.isWhitespace(c)) {
+i++;
+} else if (c == '\'') {
+int start = i++;
+while (true) {
+if (i >= length) {
+return null;
+}
+if (selector.charAt(i) == '\'') {
+if (i + 1 < length && selector.charAt(i + 1) == '\'') {
+i += 2;
+continue;
+}
+i++;
+break;
+}
+i++;
+}
+tokens.add(selector.substring(start, i));
+} else if (Character.isJavaIdentifierStart(c)) {
+int start = i++;
+while (i < length && Character.isJavaIdentifierPart(selector.charAt(i))) {
+i++;
+}
+tokens.add(selector.substring(start, i));
+} else {
+tokens.add(String.valueOf(c));
+i++;
+}
+}
+return tokens;
+}
+
+private static boolean isIdentifier(String token) {
+return Character.isJavaIdentifierStart(token.charAt(0));
+}
+
+private static boolean isKeyword(String token) {
+return Arrays.asList("NOT", "AND", "OR", "IN", "IS", "NULL", "TRUE", "FALSE", "LIKE", "BETWEEN", "ESCAPE").contains(token.toUpperCase());
+}
+
+private static boolean isString(String token) {
+return token.length() >= 2 && token.charAt(0) == '\'';
+}
+
+private static String unquote(String token) {
+return token.substring(1, token.length() - 1).replace("''", "'");
+}
+}
+}
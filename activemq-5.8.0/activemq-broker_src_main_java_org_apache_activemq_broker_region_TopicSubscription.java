@@ -17,7 +17,10 @@
 package org.apache.activemq.broker.region;
 
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicLong;
 
@@ -25,7 +28,9 @@ import javax.jms.JMSException;
 
 import org.apache.activemq.ActiveMQMessageAudit;
 import org.apache.activemq.broker.Broker;
+import org.apache.activemq.broker.Connection;
 import org.apache.activemq.broker.ConnectionContext;
+import org.apache.activemq.broker.TransportConnection;
 import org.apache.activemq.broker.region.cursors.FilePendingMessageCursor;
 import org.apache.activemq.broker.region.cursors.PendingMessageCursor;
 import org.apache.activemq.broker.region.cursors.VMPendingMessageCursor;
@@ -63,6 +68,10 @@ private int maximumPendingMessages = -1;
 private MessageEvictionStrategy messageEvictionStrategy = new OldestMessageEvictionStrategy();
 private int discarded;
 private final Object matchedListMutex = new Object();
+// async dispatches waiting to be handed to the connection, in the order
+// they were created
+private final ConcurrentLinkedQueue<MessageDispatch> handoff = new ConcurrentLinkedQueue<MessageDispatch>();
+private final AtomicBoolean handingOff = new AtomicBoolean();
 private final AtomicLong enqueueCounter = new AtomicLong(0);
 private final AtomicLong dequeueCounter = new AtomicLong(0);
 private final AtomicBoolean prefetchWindowOpen = new AtomicBoolean(false);
@@ -532,6 +541,12 @@ context.getConnection().dispatchAsync(cc);
 }
 }
 
+/**
+* Moves as many matched messages as the prefetch window allows to the
+* consumer. Asynchronous dispatches are queued for handoff while the matched
+* list is locked and handed to the connection once it is released, so
+* producers adding to the matched list do not wait on the transport.
+*/
 private void dispatchMatched() throws IOException {
 synchronized (matchedListMutex) {
 if (!matched.isEmpty() && !isFull()) {
@@ -548,7 +563,11 @@ if (message.isExpired()) {
 discard(message);
 continue; // just drop it.
 }
+if (info.isDispatchAsync()) {
+handoff.add(createMessageDispatch(message));
+} else {
 dispatch(message);
+}
 prefetchWindowOpen.set(false);
 }
 } finally {
@@ -556,10 +575,62 @@ matched.release();
 }
 }
 }
+handOff();
+}
+
+/**
+* Hands the queued async dispatches to the connection in order without
+* blocking. Only one thread drains the queue at a time, a thread that finds
+* another one draining leaves its dispatches to it. The queue is checked
+* again after the drain, so none are left behind.
+*/
+private void handOff() {
+while (!handoff.isEmpty() && handingOff.compareAndSet(false, true)) {
+try {
+List<MessageDispatch> batch = new ArrayList<MessageDispatch>();
+MessageDispatch md;
+while ((md = handoff.poll()) != null) {
+batch.add(md);
+}
+if (!batch.isEmpty()) {
+dispatchAsync(batch);
+}
+} finally {
+handingOff.set(false);
+}
+}
+}
+
+private void dispatchAsync(List<MessageDispatch> batch) {
+Connection connection = context.getConnection();
+if (connection instanceof TransportConnection) {
+((TransportConnection) connection).dispatchAsync(batch);
+} else {
+for (MessageDispatch md : batch) {
+connection.dispatchAsync(md);
+}
+}
 }
 
 private void dispatch(final MessageReference node) throws IOException {
-Message message = node.getMessage();
+MessageDispatch md = createMessageDispatch(node);
+if (info.isDispatchAsync()) {
+// behind any dispatches still queued from the matched list
+handoff.add(md);
+handOff();
+} else {
+context.getConnection().dispatchSync(md);
+if (node != null) {
+Destination regionDestination = (Destination) node.getRegionDestination();
+regionDestination.getDestinationStatistics().getDispatched().increment();
+regionDestination.getDestinationStatistics().getInflight().increment();
+node.decrementReferenceCount();
+}
+}
+}
+
+private MessageDispatch createMessageDispatch(final MessageReference node) {
+Message message = node != null ? node.getMessage() : null;
 if (node != null) {
 node.incrementReferenceCount();
 }
@@ -581,8 +652,7 @@ singleDestination = false;
 }
 }
 }
-if (info.isDispatchAsync()) {
-if (node != null) {
+if (info.isDispatchAsync() && node != null) {
 md.setTransmitCallback(new TransmitCallback() {
 
 @Override
@@ -602,16 +672,7 @@ node.decrementReferenceCount();
 }
 });
 }
-context.getConnection().dispatchAsync(md);
-} else {
-context.getConnection().dispatchSync(md);
-if (node != null) {
-Destination regionDestination = (Destination) node.getRegionDestination();
-regionDestination.getDestinationStatistics().getDispatched().increment();
-regionDestination.getDestinationStatistics().getInflight().increment();
-node.decrementReferenceCount();
-}
-}
+return md;
 }
 
 private void discard(MessageReference message) {
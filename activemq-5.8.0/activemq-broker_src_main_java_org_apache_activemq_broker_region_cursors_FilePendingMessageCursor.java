@@ -16,6 +16,7 @@
 */
 package org.apache.activemq.broker.region.cursors;
 
+import java.io.File;
 import java.io.IOException;
 import java.util.Iterator;
 import java.util.LinkedList;
@@ -61,6 +62,15 @@ private boolean iterating;
 private boolean flushRequired;
 private final AtomicBoolean started = new AtomicBoolean();
 private final WireFormat wireFormat = new OpenWireFormat();
+private final long spoolId;
+private boolean useMappedSpool;
+private int spoolSegmentSize = SpoolFile.DEFAULT_SEGMENT_SIZE;
+private SpoolFile spoolFile;
+private final AtomicLong spooledMessageCount = new AtomicLong();
+private final AtomicLong spooledBytes = new AtomicLong();
+private final AtomicLong spoolReadCount = new AtomicLong();
+private volatile long firstSpoolTime;
+private long accountedSpoolLength;
 /**
 * @param broker
 * @param name
@@ -77,7 +87,8 @@ this.broker = broker;
 // the store can be null if the BrokerService has persistence
 // turned off
 this.store = broker.getTempDataStore();
-this.name = NAME_COUNT.incrementAndGet() + "_" + name;
+this.spoolId = NAME_COUNT.incrementAndGet();
+this.name = spoolId + "_" + name;
 }
 
 @Override
@@ -164,6 +175,11 @@ destroyDiskList();
 }
 
 private void destroyDiskList() throws Exception {
+if (spoolFile != null) {
+spoolFile.close();
+spoolFile = null;
+updateSpoolUsage();
+}
 if (diskList != null) {
 store.removePList(name);
 diskList = null;
@@ -229,9 +245,9 @@ flushToDisk();
 }
 }
 }
-if (systemUsage.getTempUsage().waitForSpace(maxWaitTime)) {
+if (systemUsage.getTempUsage().waitForSpace(maxWaitTime) && (maxWaitTime <= 0 || waitForMappedSpoolSpace(maxWaitTime))) {
 ByteSequence bs = getByteSequence(node.getMessage());
-getDiskList().addLast(node.getMessageId().toString(), bs);
+spoolLast(node, bs);
 return true;
 }
 return false;
@@ -280,7 +296,7 @@ flushToDisk();
 systemUsage.getTempUsage().waitForSpace();
 node.decrementReferenceCount();
 ByteSequence bs = getByteSequence(node.getMessage());
-Object locator = getDiskList().addFirst(node.getMessageId().toString(), bs);
+Object locator = spoolFirst(node, bs);
 node.getMessageId().setPlistLocator(locator);
 
 } catch (Exception e) {
@@ -338,7 +354,12 @@ node.decrementReferenceCount();
 }
 if (!isDiskListEmpty()) {
 try {
+if (useMappedSpool) {
+spoolFile.remove(node.getMessageId().getPlistLocator());
+updateSpoolUsage();
+} else {
 getDiskList().remove(node.getMessageId().getPlistLocator());
+}
 } catch (IOException e) {
 throw new RuntimeException(e);
 }
@@ -350,7 +371,10 @@ throw new RuntimeException(e);
 */
 @Override
 public synchronized int size() {
-return memoryList.size() + (isDiskListEmpty() ? 0 : (int)getDiskList().size());
+if (isDiskListEmpty()) {
+return memoryList.size();
+}
+return memoryList.size() + (useMappedSpool ? spoolFile.size() : (int)getDiskList().size());
 }
 
 /**
@@ -361,7 +385,12 @@ public synchronized void clear() {
 memoryList.clear();
 if (!isDiskListEmpty()) {
 try {
+if (useMappedSpool) {
+spoolFile.clear();
+updateSpoolUsage();
+} else {
 getDiskList().destroy();
+}
 } catch (IOException e) {
 throw new RuntimeException(e);
 }
@@ -372,7 +401,7 @@ last = null;
 @Override
 public synchronized boolean isFull() {
 
-return super.isFull() || (!isDiskListEmpty() && systemUsage != null && systemUsage.getTempUsage().isFull());
+return super.isFull() || (!isDiskListEmpty() && systemUsage != null && (systemUsage.getTempUsage().isFull() || !hasMappedSpoolSpace()));
 
 }
 
@@ -438,7 +467,7 @@ node.decrementReferenceCount();
 ByteSequence bs;
 try {
 bs = getByteSequence(node.getMessage());
-getDiskList().addLast(node.getMessageId().toString(), bs);
+spoolLast(node, bs);
 } catch (IOException e) {
 LOG.error("Failed to write to disk list", e);
 throw new RuntimeException(e);
@@ -454,6 +483,9 @@ LOG.trace("" + name + ", flushToDisk() done - " + (System.currentTimeMillis() -
 }
 
 protected boolean isDiskListEmpty() {
+if (useMappedSpool) {
+return spoolFile == null || spoolFile.isEmpty();
+}
 return diskList == null || diskList.isEmpty();
 }
 
@@ -469,6 +501,176 @@ throw new RuntimeException(e);
 return diskList;
 }
 
+private void spoolLast(MessageReference node, ByteSequence bs) throws IOException {
+if (useMappedSpool) {
+getSpoolFile().addLast(bs);
+updateSpoolUsage();
+} else {
+getDiskList().addLast(node.getMessageId().toString(), bs);
+}
+spooled(bs);
+}
+
+private Object spoolFirst(MessageReference node, ByteSequence bs) throws IOException {
+Object locator;
+if (useMappedSpool) {
+locator = getSpoolFile().addFirst(bs);
+updateSpoolUsage();
+} else {
+locator = getDiskList().addFirst(node.getMessageId().toString(), bs);
+}
+spooled(bs);
+return locator;
+}
+
+private void spooled(ByteSequence bs) {
+if (firstSpoolTime == 0) {
+firstSpoolTime = System.currentTimeMillis();
+}
+spooledMessageCount.incrementAndGet();
+spooledBytes.addAndGet(bs.getLength());
+}
+
+/**
+* Charges changes in the mapped length of the spool file to the broker. The
+* temp usage itself only measures the temp store, so the spools of the
+* broker are added to it in hasMappedSpoolSpace.
+*/
+private void updateSpoolUsage() {
+long length = spoolFile == null ? 0 : spoolFile.getMappedLength();
+if (length != accountedSpoolLength) {
+broker.getBrokerService().adjustMappedSpoolUsage(length - accountedSpoolLength);
+accountedSpoolLength = length;
+}
+}
+
+/**
+* @return true if the temp store and the mapped spools together are below
+*         the temp usage limit
+*/
+private boolean hasMappedSpoolSpace() {
+if (!useMappedSpool || systemUsage == null) {
+return true;
+}
+Usage tempUsage = systemUsage.getTempUsage();
+long limit = tempUsage.getLimit();
+long storeUsage = limit * tempUsage.getPercentUsage() / 100;
+return storeUsage + broker.getBrokerService().getMappedSpoolUsage() < limit;
+}
+
+/**
+* Waits on the cursor monitor until the mapped spools are below the temp
+* usage limit. Only used by adds that can fail after a time, the others
+* spool regardless as their callers may hold locks the consumers of this
+* cursor need, while isFull already reports the lack of space to producer
+* flow control.
+*
+* @param maxWaitTime the time to wait for
+* @return true if there is space
+*/
+private boolean waitForMappedSpoolSpace(long maxWaitTime) throws InterruptedException {
+long deadline = System.currentTimeMillis() + maxWaitTime;
+while (!hasMappedSpoolSpace()) {
+long remaining = deadline - System.currentTimeMillis();
+if (remaining <= 0) {
+return false;
+}
+// other cursors free space without notifying, so poll
+wait(Math.min(remaining, 100));
+}
+return true;
+}
+
+private SpoolFile getSpoolFile() {
+if (spoolFile == null) {
+File directory = new File(broker.getBrokerService().getTmpDataDirectory(), "spool");
+SpoolFile file = new SpoolFile(new File(directory, "cursor-" + spoolId + ".spool"), spoolSegmentSize);
+try {
+file.open();
+} catch (IOException e) {
+LOG.error("Caught an IO Exception opening the spool file for " + name, e);
+throw new RuntimeException(e);
+}
+spoolFile = file;
+}
+return spoolFile;
+}
+
+/**
+* @return true if messages are spooled to a memory mapped file owned by
+*         this cursor rather than to the broker temp store
+*/
+public boolean isUseMappedSpool() {
+return useMappedSpool;
+}
+
+/**
+* Spool messages to an append only memory mapped file owned by this cursor
+* instead of a plist of the broker temp store. The spool file lives in the
+* broker tmp data directory and counts against the temp usage limit
+* together with the temp store. Must be set before the cursor spools its
+* first message.
+*/
+public synchronized void setUseMappedSpool(boolean useMappedSpool) {
+if (!isDiskListEmpty()) {
+throw new IllegalStateException("Cannot change the spool of " + name + " while it holds messages");
+}
+this.useMappedSpool = useMappedSpool;
+}
+
+public int getSpoolSegmentSize() {
+return spoolSegmentSize;
+}
+
+/**
+* Sets the size of the memory mapped segments of the spool file
+*/
+public void setSpoolSegmentSize(int spoolSegmentSize) {
+this.spoolSegmentSize = spoolSegmentSize;
+}
+
+/**
+* @return the number of messages written to disk by this cursor
+*/
+public long getSpooledMessageCount() {
+return spooledMessageCount.get();
+}
+
+/**
+* @return the number of marshalled bytes written to disk by this cursor
+*/
+public long getSpooledBytes() {
+return spooledBytes.get();
+}
+
+/**
+* @return the number of messages read back from disk by this cursor
+*/
+public long getSpoolReadCount() {
+return spoolReadCount.get();
+}
+
+/**
+* @return the average number of messages written to disk per second since
+*         the cursor first spooled
+*/
+public double getSpoolRate() {
+long start = firstSpoolTime;
+if (start == 0) {
+return 0;
+}
+long elapsed = Math.max(1, System.currentTimeMillis() - start);
+return spooledMessageCount.get() * 1000.0 / elapsed;
+}
+
+/**
+* @return the bytes of the mapped spool file in use, 0 when messages are
+*         spooled to the temp store
+*/
+public synchronized long getSpoolDiskUsage() {
+return spoolFile == null ? 0 : spoolFile.getMappedLength();
+}
+
 private void discardExpiredMessage(MessageReference reference) {
 if (LOG.isDebugEnabled()) {
 LOG.debug("Discarding expired message " + reference);
@@ -494,23 +696,38 @@ return (Message) this.wireFormat.unmarshal(packet);
 
 final class DiskIterator implements Iterator<MessageReference> {
 private final PList.PListIterator iterator;
+private final Iterator<SpoolFile.Entry> spoolIterator;
 DiskIterator() {
+if (useMappedSpool) {
+iterator = null;
+spoolIterator = getSpoolFile().iterator();
+} else {
+spoolIterator = null;
 try {
 iterator = getDiskList().iterator();
 } catch (Exception e) {
 throw new RuntimeException(e);
 }
 }
+}
 
 public boolean hasNext() {
-return iterator.hasNext();
+return spoolIterator != null ? spoolIterator.hasNext() : iterator.hasNext();
 }
 
 public MessageReference next() {
 try {
+Message message;
+if (spoolIterator != null) {
+SpoolFile.Entry entry = spoolIterator.next();
+message = getMessage(spoolFile.read(entry));
+message.getMessageId().setPlistLocator(entry);
+} else {
 PListEntry entry = iterator.next();
-Message message = getMessage(entry.getByteSequence());
+message = getMessage(entry.getByteSequence());
 message.getMessageId().setPlistLocator(entry.getLocator());
+}
+spoolReadCount.incrementAndGet();
 return message;
 } catch (IOException e) {
 LOG.error("I/O error", e);
@@ -519,11 +736,18 @@ throw new RuntimeException(e);
 }
 
 public void remove() {
+if (spoolIterator != null) {
+spoolIterator.remove();
+updateSpoolUsage();
+} else {
 iterator.remove();
 }
+}
 
 public void release() {
+if (iterator != null) {
 iterator.release();
 }
 }
+}
 }
\ No newline at end of file
@@ -0,0 +1,371 @@
+/**
+* Licensed to the Apache Software Foundation (ASF) under one or more
+* contributor license agreements.  See the NOTICE file distributed with
+* this work for additional information regarding copyright ownership.
+* The ASF licenses this file to You under the Apache License, Version 2.0
+* (the "License"); you may not use this file except in compliance with
+* the License.  You may obtain a copy of the License at
+*
+*      http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+package org.apache.activemq.broker.region.cursors;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+import org.apache.activemq.util.ByteSequence;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+* An append only spool of marshalled messages held in memory mapped segments
+* of a single file.
+*
+* The iteration order is kept by an in memory list of record offsets so
+* adding at the front is as cheap as adding at the back. The space of removed
+* records is reused once the spool drains. When removed records take up more
+* than a segment and more than the records still present, the next append
+* first compacts the live records to the start of the file, truncates it and
+* unmaps the segments no longer needed, so a spool that never drains stays
+* bounded by twice its live data. This class is not thread safe, the
+* FilePendingMessageCursor guards it with its own monitor.
+*/
+class SpoolFile {
+
+private static final Logger LOG = LoggerFactory.getLogger(SpoolFile.class);
+
+static final int DEFAULT_SEGMENT_SIZE = 8 * 1024 * 1024;
+
+private static final Comparator<Entry> BY_OFFSET = new Comparator<Entry>() {
+public int compare(Entry e1, Entry e2) {
+return e1.offset < e2.offset ? -1 : (e1.offset == e2.offset ? 0 : 1);
+}
+};
+
+private final File file;
+private final int segmentSize;
+private final List<MappedByteBuffer> segments = new ArrayList<MappedByteBuffer>();
+// sentinel of the circular list of live records
+private final Entry head = new Entry(-1, 0);
+private RandomAccessFile randomAccessFile;
+private FileChannel channel;
+private long writeOffset;
+private long liveBytes;
+private int size;
+
+/**
+* The location of a record, used as the plist locator of a spooled message.
+* A removed entry keeps its next pointer so an iterator positioned on it can
+* still move on.
+*/
+static final class Entry {
+private long offset;
+private final int length;
+private Entry prev;
+private Entry next;
+private boolean removed;
+
+Entry(long offset, int length) {
+this.offset = offset;
+this.length = length;
+}
+}
+
+SpoolFile(File file, int segmentSize) {
+this.file = file;
+this.segmentSize = segmentSize;
+head.next = head;
+head.prev = head;
+}
+
+void open() throws IOException {
+file.getParentFile().mkdirs();
+randomAccessFile = new RandomAccessFile(file, "rw");
+randomAccessFile.setLength(0);
+channel = randomAccessFile.getChannel();
+}
+
+void close() throws IOException {
+clear();
+releaseSegments(0);
+try {
+if (channel != null) {
+channel.close();
+}
+if (randomAccessFile != null) {
+randomAccessFile.close();
+}
+} finally {
+channel = null;
+randomAccessFile = null;
+file.delete();
+}
+}
+
+Entry addLast(ByteSequence bs) throws IOException {
+Entry entry = append(bs);
+link(entry, head.prev, head);
+return entry;
+}
+
+Entry addFirst(ByteSequence bs) throws IOException {
+Entry entry = append(bs);
+link(entry, head, head.next);
+return entry;
+}
+
+/**
+* @return true if the locator belonged to a record that was still present
+*/
+boolean remove(Object locator) {
+if (!(locator instanceof Entry)) {
+return false;
+}
+Entry entry = (Entry) locator;
+if (entry.removed || entry.prev == null) {
+return false;
+}
+unlink(entry);
+return true;
+}
+
+ByteSequence read(Entry entry) throws IOException {
+byte[] data = new byte[entry.length];
+long offset = entry.offset;
+int done = 0;
+while (done < data.length) {
+ByteBuffer buffer = segment(offset);
+int count = Math.min(data.length - done, buffer.remaining());
+buffer.get(data, done, count);
+offset += count;
+done += count;
+}
+return new ByteSequence(data);
+}
+
+void clear() {
+for (Entry entry = head.next; entry != head; entry = entry.next) {
+entry.removed = true;
+}
+head.next = head;
+head.prev = head;
+size = 0;
+liveBytes = 0;
+writeOffset = 0;
+trim();
+}
+
+int size() {
+return size;
+}
+
+boolean isEmpty() {
+return size == 0;
+}
+
+/**
+* @return the number of bytes written to the file since it last drained
+*/
+long getLength() {
+return writeOffset;
+}
+
+/**
+* @return the number of bytes of the file currently mapped
+*/
+long getMappedLength() {
+return (long) segments.size() * segmentSize;
+}
+
+/**
+* @return the number of bytes held by records that are still present
+*/
+long getLiveBytes() {
+return liveBytes;
+}
+
+Iterator<Entry> iterator() {
+return new EntryIterator();
+}
+
+private final class EntryIterator implements Iterator<Entry> {
+private Entry current = head;
+private Entry last;
+
+private Entry advance() {
+Entry entry = current.next;
+while (entry != head && entry.removed) {
+entry = entry.next;
+}
+return entry;
+}
+
+public boolean hasNext() {
+return advance() != head;
+}
+
+public Entry next() {
+Entry entry = advance();
+if (entry == head) {
+throw new NoSuchElementException();
+}
+current = entry;
+last = entry;
+return entry;
+}
+
+public void remove() {
+if (last == null) {
+throw new IllegalStateException();
+}
+SpoolFile.this.remove(last);
+last = null;
+}
+}
+
+private Entry append(ByteSequence bs) throws IOException {
+if (channel == null) {
+throw new IOException("Spool file " + file + " is not open");
+}
+long deadBytes = writeOffset - liveBytes;
+if (deadBytes >= segmentSize && deadBytes >= liveBytes) {
+compact();
+}
+Entry entry = new Entry(writeOffset, bs.getLength());
+write(writeOffset, bs.getData(), bs.getOffset(), bs.getLength());
+writeOffset += bs.getLength();
+return entry;
+}
+
+private void write(long offset, byte[] data, int dataOffset, int length) throws IOException {
+int remaining = length;
+while (remaining > 0) {
+ByteBuffer buffer = segment(offset);
+int count = Math.min(remaining, buffer.remaining());
+buffer.put(data, dataOffset, count);
+offset += count;
+dataOffset += count;
+remaining -= count;
+}
+}
+
+/**
+* Moves the live records, in file order, to the start of the file. A record
+* never moves past its old position, and each one is read in full before
+* it is written, so records that overlap their new place are safe.
+*/
+private void compact() throws IOException {
+List<Entry> live = new ArrayList<Entry>(size);
+for (Entry entry = head.next; entry != head; entry = entry.next) {
+live.add(entry);
+}
+Collections.sort(live, BY_OFFSET);
+long offset = 0;
+for (Entry entry : live) {
+if (entry.offset != offset) {
+ByteSequence bs = read(entry);
+write(offset, bs.getData(), bs.getOffset(), bs.getLength());
+entry.offset = offset;
+}
+offset += entry.length;
+}
+writeOffset = offset;
+int needed = (int) ((offset + segmentSize - 1) / segmentSize);
+if (needed < segments.size()) {
+releaseSegments(needed);
+randomAccessFile.setLength((long) needed * segmentSize);
+}
+}
+
+/**
+* Unmaps all segments from the given index on.
+*/
+private void releaseSegments(int keep) {
+while (segments.size() > keep) {
+unmap(segments.remove(segments.size() - 1));
+}
+}
+
+/**
+* Releases the mapping right away rather than when the buffer is garbage
+* collected, which keeps the address space and the file pinned until then.
+*/
+private static void unmap(MappedByteBuffer buffer) {
+try {
+Method cleanerMethod = buffer.getClass().getMethod("cleaner");
+cleanerMethod.setAccessible(true);
+Object cleaner = cleanerMethod.invoke(buffer);
+if (cleaner != null) {
+Method cleanMethod = cleaner.getClass().getMethod("clean");
+cleanMethod.setAccessible(true);
+cleanMethod.invoke(cleaner);
+}
+} catch (Throwable e) {
+LOG.debug("Could not unmap a spool segment, it is released when garbage collected: " + e);
+}
+}
+
+private ByteBuffer segment(long offset) throws IOException {
+int index = (int) (offset / segmentSize);
+while (segments.size() <= index) {
+segments.add(channel.map(FileChannel.MapMode.READ_WRITE, (long) segments.size() * segmentSize, segmentSize));
+}
+ByteBuffer buffer = segments.get(index).duplicate();
+buffer.position((int) (offset % segmentSize));
+return buffer;
+}
+
+private void link(Entry entry, Entry prev, Entry next) {
+entry.prev = prev;
+entry.next = next;
+prev.next = entry;
+next.prev = entry;
+size++;
+liveBytes += entry.length;
+}
+
+private void unlink(Entry entry) {
+entry.prev.next = entry.next;
+entry.next.prev = entry.prev;
+entry.prev = null;
+entry.removed = true;
+size--;
+liveBytes -= entry.length;
+if (size == 0) {
+writeOffset = 0;
+trim();
+}
+}
+
+/**
+* Unmaps all segments of a drained spool and truncates the file, the next
+* append maps a segment again.
+*/
+private void trim() {
+if (!segments.isEmpty()) {
+releaseSegments(0);
+try {
+randomAccessFile.setLength(0);
+} catch (IOException e) {
+LOG.warn("Could not truncate spool file " + file + ": " + e);
+}
+}
+}
+}
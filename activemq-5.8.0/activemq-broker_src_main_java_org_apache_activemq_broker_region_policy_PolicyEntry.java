@@ -27,6 +27,7 @@ import org.apache.activemq.broker.region.QueueSubscription;
 import org.apache.activemq.broker.region.Subscription;
 import org.apache.activemq.broker.region.Topic;
 import org.apache.activemq.broker.region.TopicSubscription;
+import org.apache.activemq.broker.region.cursors.FilePendingMessageCursor;
 import org.apache.activemq.broker.region.cursors.PendingMessageCursor;
 import org.apache.activemq.broker.region.group.MessageGroupHashBucketFactory;
 import org.apache.activemq.broker.region.group.MessageGroupMapFactory;
@@ -71,6 +72,8 @@ private boolean useCache=true;
 private long minimumMessageSize=1024;
 private boolean useConsumerPriority=true;
 private boolean strictOrderDispatch=false;
+private boolean useMappedSpool;
+private boolean useTopicSelectorIndex;
 private boolean lazyDispatch=false;
 private int timeBeforeDispatchStarts = 0;
 private int consumersBeforeDispatchStarts = 0;
@@ -143,6 +146,7 @@ if (memoryLimit > 0) {
 topic.getMemoryUsage().setLimit(memoryLimit);
 }
 topic.setLazyDispatch(isLazyDispatch());
+topic.setUseSelectorIndex(isUseTopicSelectorIndex());
 }
 
 public void baseConfiguration(Broker broker,BaseDestination destination) {
@@ -207,6 +211,9 @@ String name = subscription.getContext().getClientId() + "_" + subscription.getCo
 int maxBatchSize = subscription.getConsumerInfo().getPrefetchSize();
 subscription.setMatched(pendingSubscriberPolicy.getSubscriberPendingMessageCursor(broker,name, maxBatchSize,subscription));
 }
+if (useMappedSpool && subscription.getMatched() instanceof FilePendingMessageCursor) {
+((FilePendingMessageCursor) subscription.getMatched()).setUseMappedSpool(true);
+}
 if (enableAudit) {
 subscription.setEnableAudit(enableAudit);
 subscription.setMaxProducersToAudit(maxProducersToAudit);
@@ -571,6 +578,30 @@ public void setStrictOrderDispatch(boolean strictOrderDispatch) {
 this.strictOrderDispatch = strictOrderDispatch;
 }
 
+public boolean isUseMappedSpool() {
+return useMappedSpool;
+}
+
+/**
+* Makes file based topic subscription cursors spool to their own memory
+* mapped file instead of the broker temp store.
+*/
+public void setUseMappedSpool(boolean useMappedSpool) {
+this.useMappedSpool = useMappedSpool;
+}
+
+public boolean isUseTopicSelectorIndex() {
+return useTopicSelectorIndex;
+}
+
+/**
+* Makes topics index the equality and IN tests of subscription selectors so
+* messages are only matched against subscriptions that can select them.
+*/
+public void setUseTopicSelectorIndex(boolean useTopicSelectorIndex) {
+this.useTopicSelectorIndex = useTopicSelectorIndex;
+}
+
 public boolean isLazyDispatch() {
 return lazyDispatch;
 }
@@ -136,6 +136,17 @@ protected BrokerId remoteBrokerId;
 
 final AtomicLong enqueueCounter = new AtomicLong();
 final AtomicLong dequeueCounter = new AtomicLong();
+final AtomicLong ackBatchCounter = new AtomicLong();
+final AtomicLong batchAckedCounter = new AtomicLong();
+
+private int ackBatchSize;
+private long ackFlushInterval = 100;
+private final Runnable ackFlushTask = new Runnable() {
+@Override
+public void run() {
+flushAcks();
+}
+};
 
 private NetworkBridgeListener networkBridgeListener;
 private boolean createdByDuplex;
@@ -175,6 +186,14 @@ if (brokerService == null) {
 throw new IllegalArgumentException("BrokerService is null on " + this);
 }
 
+if (ackBatchSize > 0) {
+if (ackBatchSize >= configuration.getPrefetchSize()) {
+throw new IllegalArgumentException("ackBatchSize " + ackBatchSize + " must be below the prefetch size "
++ configuration.getPrefetchSize() + " of " + this);
+}
+brokerService.getScheduler().executePeriodically(ackFlushTask, ackFlushInterval);
+}
+
 if (isDuplex()) {
 duplexInboundLocalBroker = NetworkBridgeFactory.createLocalTransport(brokerService.getBroker());
 duplexInboundLocalBroker.setTransportListener(new DefaultTransportListener() {
@@ -284,6 +303,12 @@ if (LOG.isInfoEnabled()) {
 LOG.info("pending tasks on stop" + pendingTasks);
 }
 }
+if (ackBatchSize > 0) {
+brokerService.getScheduler().cancel(ackFlushTask);
+// the bridge is already disposed, send what was forwarded before the
+// local connection goes
+doFlushAcks();
+}
 localBroker.oneway(new ShutdownInfo());
 remoteBroker.oneway(new ShutdownInfo());
 } catch (Throwable e) {
@@ -833,6 +858,11 @@ if (error instanceof DestinationDoesNotExistException && ((DestinationDoesNotExi
 if (messageDispatch != null) {
 LOG.warn("PoisonAck of " + messageDispatch.getMessage().getMessageId() + " on forwarding error: " + error);
 try {
+DemandSubscription sub = subscriptionMapByLocalId.get(messageDispatch.getConsumerId());
+if (sub != null) {
+// keeps batched range acks of its neighbours from covering it
+sub.skipped(messageDispatch);
+}
 MessageAck poisonAck = new MessageAck(messageDispatch, MessageAck.POSION_ACK_TYPE, 1);
 poisonAck.setPoisonCause(error);
 localBroker.oneway(poisonAck);
@@ -918,6 +948,7 @@ serialExecutor.execute(new Runnable() {
 public void run() {
 sub.waitForCompletion();
 try {
+sendAcks(sub.flushAcks());
 localBroker.oneway(sub.getLocalInfo().createRemoveCommand());
 } catch (IOException e) {
 LOG.warn("failed to deliver remove command for local subscription, for remote " + sub.getRemoteInfo().getConsumerId(), e);
@@ -954,6 +985,11 @@ final MessageDispatch md = (MessageDispatch) command;
 final DemandSubscription sub = subscriptionMapByLocalId.get(md.getConsumerId());
 if (sub != null && md.getMessage() != null && sub.incrementOutstandingResponses()) {
 
+final boolean batchAck = ackBatchSize > 0;
+if (batchAck) {
+sub.trackDispatched(md);
+}
+
 if (suppressMessageDispatch(md, sub)) {
 if (LOG.isDebugEnabled()) {
 LOG.debug(configuration.getBrokerName() + " message not forwarded to " + remoteBrokerName
@@ -962,6 +998,9 @@ LOG.debug(configuration.getBrokerName() + " message not forwarded to " + remoteB
 }
 // still ack as it may be durable
 try {
+if (batchAck) {
+sub.untrack(md);
+}
 localBroker.oneway(new MessageAck(md, MessageAck.INDIVIDUAL_ACK_TYPE, 1));
 } finally {
 sub.decrementOutstandingResponses();
@@ -978,6 +1017,9 @@ LOG.debug("bridging (" + configuration.getBrokerName() + " -> " + remoteBrokerNa
 
 if (isDuplex() && AdvisorySupport.ADIVSORY_MESSAGE_TYPE.equals(message.getType())) {
 try {
+if (batchAck) {
+sub.skipped(md);
+}
 // never request b/c they are eventually acked async
 remoteBroker.oneway(message);
 } finally {
@@ -1000,7 +1042,11 @@ if (response.isException()) {
 ExceptionResponse er = (ExceptionResponse) response;
 serviceLocalException(md, er.getException());
 } else {
+if (batchAck) {
+sendAcks(sub.forwarded(md, ackBatchSize));
+} else {
 localBroker.oneway(new MessageAck(md, MessageAck.INDIVIDUAL_ACK_TYPE, 1));
+}
 dequeueCounter.incrementAndGet();
 }
 } catch (IOException e) {
@@ -1017,7 +1063,11 @@ sub.decrementOutstandingResponses();
 // of message loss).
 try {
 remoteBroker.oneway(message);
+if (batchAck) {
+sendAcks(sub.forwarded(md, ackBatchSize));
+} else {
 localBroker.oneway(new MessageAck(md, MessageAck.INDIVIDUAL_ACK_TYPE, 1));
+}
 dequeueCounter.incrementAndGet();
 } finally {
 sub.decrementOutstandingResponses();
@@ -1052,6 +1102,39 @@ serviceLocalException(e);
 }
 }
 
+/**
+* Sends the acks of the forwarded messages of all subscriptions that are
+* still waiting for their batch to fill, so the local broker sees them
+* within the flush interval.
+*/
+protected void flushAcks() {
+if (disposed.get()) {
+return;
+}
+try {
+doFlushAcks();
+} catch (IOException e) {
+LOG.warn("Failed to flush acks of forwarded messages", e);
+serviceLocalException(e);
+}
+}
+
+private void doFlushAcks() throws IOException {
+for (DemandSubscription sub : subscriptionMapByLocalId.values()) {
+sendAcks(sub.flushAcks());
+}
+}
+
+private void sendAcks(List<MessageAck> acks) throws IOException {
+for (MessageAck ack : acks) {
+localBroker.oneway(ack);
+if (ack.getMessageCount() > 1) {
+ackBatchCounter.incrementAndGet();
+batchAckedCounter.addAndGet(ack.getMessageCount());
+}
+}
+}
+
 private boolean suppressMessageDispatch(MessageDispatch md, DemandSubscription sub) throws Exception {
 boolean suppress = false;
 // for durable subs, suppression via filter leaves dangling acks so we
@@ -1560,6 +1643,47 @@ public long getEnqueueCounter() {
 return enqueueCounter.get();
 }
 
+public int getAckBatchSize() {
+return ackBatchSize;
+}
+
+/**
+* Sets the number of forwarded messages whose acks to the local broker are
+* collected per subscription before they are sent as ranges, 0 (the default)
+* acks each message as soon as it has been forwarded. Must be set before
+* the bridge is started and stay below the prefetch of the bridge.
+*/
+public void setAckBatchSize(int ackBatchSize) {
+this.ackBatchSize = ackBatchSize;
+}
+
+public long getAckFlushInterval() {
+return ackFlushInterval;
+}
+
+/**
+* Sets the interval in milliseconds after which acks collected for a batch
+* are sent even if the batch is not full.
+*/
+public void setAckFlushInterval(long ackFlushInterval) {
+this.ackFlushInterval = ackFlushInterval;
+}
+
+/**
+* @return the number of range acks sent for batches of forwarded messages
+*/
+public long getAckBatchCount() {
+return ackBatchCounter.get();
+}
+
+/**
+* @return the average number of forwarded messages acked per range ack
+*/
+public double getAverageAckBatchSize() {
+long batches = ackBatchCounter.get();
+return batches == 0 ? 0 : (double) batchAckedCounter.get() / batches;
+}
+
 protected boolean isDuplex() {
 return configuration.isDuplex() || createdByDuplex;
 }
@@ -16,6 +16,11 @@
 */
 package org.apache.activemq.network;
 
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Set;
 import java.util.concurrent.CopyOnWriteArraySet;
 import java.util.concurrent.atomic.AtomicBoolean;
@@ -23,6 +28,9 @@ import java.util.concurrent.atomic.AtomicInteger;
 
 import org.apache.activemq.command.ConsumerId;
 import org.apache.activemq.command.ConsumerInfo;
+import org.apache.activemq.command.MessageAck;
+import org.apache.activemq.command.MessageDispatch;
+import org.apache.activemq.command.MessageId;
 import org.apache.activemq.command.NetworkBridgeFilter;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -41,6 +49,24 @@ private final AtomicBoolean activeWaiter = new AtomicBoolean();
 
 private NetworkBridgeFilter networkBridgeFilter;
 
+// messages dispatched to the local subscription in dispatch order, until they
+// are acked, when the bridge acks forwarded messages in batches
+private final LinkedHashMap<MessageId, Forwarded> forwarded = new LinkedHashMap<MessageId, Forwarded>();
+private int forwardedCount;
+
+private static final int PENDING = 0;
+private static final int FORWARDED = 1;
+private static final int SKIPPED = 2;
+
+private static final class Forwarded {
+final MessageDispatch md;
+int state = PENDING;
+
+Forwarded(MessageDispatch md) {
+this.md = md;
+}
+}
+
 DemandSubscription(ConsumerInfo info) {
 remoteInfo = info;
 localInfo = info.copy();
@@ -130,6 +156,139 @@ return false;
 return true;
 }
 
+/**
+* Records a message dispatched to the local subscription whose ack is
+* batched.
+*/
+public void trackDispatched(MessageDispatch md) {
+synchronized (forwarded) {
+forwarded.put(md.getMessage().getMessageId(), new Forwarded(md));
+}
+}
+
+/**
+* Marks a dispatched message the bridge does not ack, so no ack range spans
+* it.
+*/
+public void skipped(MessageDispatch md) {
+synchronized (forwarded) {
+Forwarded entry = forwarded.get(md.getMessage().getMessageId());
+if (entry != null) {
+entry.state = SKIPPED;
+}
+}
+}
+
+/**
+* Stops tracking a message that was acked on its own.
+*/
+public void untrack(MessageDispatch md) {
+synchronized (forwarded) {
+Forwarded entry = forwarded.remove(md.getMessage().getMessageId());
+if (entry != null && entry.state == FORWARDED) {
+forwardedCount--;
+}
+}
+}
+
+/**
+* Marks a message as delivered to the remote broker.
+*
+* @return the acks to send once batchSize forwarded messages are waiting
+*         for their ack, otherwise an empty list
+*/
+public List<MessageAck> forwarded(MessageDispatch md, int batchSize) {
+synchronized (forwarded) {
+Forwarded entry = forwarded.get(md.getMessage().getMessageId());
+if (entry == null) {
+return Collections.singletonList(new MessageAck(md, MessageAck.INDIVIDUAL_ACK_TYPE, 1));
+}
+if (entry.state == PENDING) {
+entry.state = FORWARDED;
+forwardedCount++;
+}
+if (forwardedCount < batchSize) {
+return Collections.emptyList();
+}
+return flushAcks();
+}
+}
+
+/**
+* Creates the acks for all forwarded messages. A run of forwarded messages
+* that are next to each other in dispatch order and share a destination
+* becomes one standard ack for the range, the local broker acks everything
+* it dispatched from the first to the last message of the range. Forwarded
+* messages behind a message still awaiting its response are acked
+* individually.
+*/
+public List<MessageAck> flushAcks() {
+synchronized (forwarded) {
+List<MessageAck> acks = new ArrayList<MessageAck>();
+if (forwardedCount == 0) {
+return acks;
+}
+Iterator<Forwarded> iterator = forwarded.values().iterator();
+Forwarded first = null;
+Forwarded last = null;
+int count = 0;
+while (iterator.hasNext()) {
+Forwarded entry = iterator.next();
+if (entry.state == SKIPPED && count == 0) {
+// nothing of ours precedes it, the local broker keeps it
+iterator.remove();
+continue;
+}
+if (entry.state != FORWARDED || (last != null && !last.md.getDestination().equals(entry.md.getDestination()))) {
+if (count > 0) {
+acks.add(createAck(first, last, count));
+first = null;
+last = null;
+count = 0;
+}
+if (entry.state == PENDING) {
+break;
+}
+if (entry.state == SKIPPED) {
+iterator.remove();
+continue;
+}
+}
+if (first == null) {
+first = entry;
+}
+last = entry;
+count++;
+iterator.remove();
+forwardedCount--;
+}
+if (count > 0) {
+acks.add(createAck(first, last, count));
+}
+if (forwardedCount > 0) {
+iterator = forwarded.values().iterator();
+while (iterator.hasNext()) {
+Forwarded entry = iterator.next();
+if (entry.state == FORWARDED) {
+acks.add(new MessageAck(entry.md, MessageAck.INDIVIDUAL_ACK_TYPE, 1));
+iterator.remove();
+forwardedCount--;
+}
+}
+}
+return acks;
+}
+}
+
+private MessageAck createAck(Forwarded first, Forwarded last, int count) {
+if (count == 1) {
+return new MessageAck(last.md, MessageAck.INDIVIDUAL_ACK_TYPE, 1);
+}
+MessageAck ack = new MessageAck(last.md, MessageAck.STANDARD_ACK_TYPE, count);
+ack.setFirstMessageId(first.md.getMessage().getMessageId());
+return ack;
+}
+
 public NetworkBridgeFilter getNetworkBridgeFilter() {
 return networkBridgeFilter;
 }
@@ -31,6 +31,8 @@ import javax.naming.event.*;
 import javax.naming.ldap.LdapName;
 import javax.naming.ldap.Rdn;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
 */
@@ -71,18 +73,31 @@ private String userNameAttribute = "uid";
 
 private int refreshInterval = -1;
 private boolean refreshDisabled = false;
+private int maxCachedACLs = 10000;
 
 // Internal State
-private long lastUpdated;
+private volatile long lastUpdated;
 
 private static String ANY_DESCENDANT = "\\$";
 
-protected DirContext context;
+protected volatile DirContext context;
 private EventDirContext eventContext;
 
 protected HashMap<ActiveMQDestination, AuthorizationEntry> entries =
 new HashMap<ActiveMQDestination, AuthorizationEntry>();
 
+// the ACLs resolved per destination since the policy last changed, replaced
+// as a whole on every change, or once it holds maxCachedACLs entries, so
+// lookups need no lock
+private volatile ResolvedACLs resolvedACLs = new ResolvedACLs();
+
+private static final class ResolvedACLs {
+final ConcurrentHashMap<ActiveMQDestination, Set<Object>> adminACLs = new ConcurrentHashMap<ActiveMQDestination, Set<Object>>();
+final ConcurrentHashMap<ActiveMQDestination, Set<Object>> readACLs = new ConcurrentHashMap<ActiveMQDestination, Set<Object>>();
+final ConcurrentHashMap<ActiveMQDestination, Set<Object>> writeACLs = new ConcurrentHashMap<ActiveMQDestination, Set<Object>>();
+final AtomicInteger size = new AtomicInteger();
+}
+
 protected DirContext createContext() throws NamingException {
 Hashtable<String, String> env = new Hashtable<String, String>();
 env.put(Context.INITIAL_CONTEXT_FACTORY, initialContextFactory);
@@ -255,6 +270,15 @@ applyACL(entry, result, permissionType);
 */
 protected void updated() {
 lastUpdated = System.currentTimeMillis();
+invalidateResolvedACLs();
+}
+
+/**
+* Discards the ACLs resolved per destination, must be called whenever the
+* policy entries change.
+*/
+protected void invalidateResolvedACLs() {
+resolvedACLs = new ResolvedACLs();
 }
 
 /**
@@ -619,6 +643,20 @@ return filter;
 * and are the refresh interval has elapsed.
 */
 protected void checkForUpdates() {
+if (isUpdateDue()) {
+doCheckForUpdates();
+}
+}
+
+/**
+* @return true if the policy has to be refreshed from the server before it
+*         is used, may be called without holding the lock
+*/
+private boolean isUpdateDue() {
+return context == null || (!refreshDisabled && (refreshInterval != -1 && System.currentTimeMillis() >= lastUpdated + refreshInterval));
+}
+
+private void doCheckForUpdates() {
 if (context == null || (!refreshDisabled && (refreshInterval != -1 && System.currentTimeMillis() >= lastUpdated + refreshInterval))) {
 if (!isContextAlive()) {
 try {
@@ -631,6 +669,7 @@ return;
 reset();
 setTempDestinationAuthorizationEntry(null);
 entries.clear();
+invalidateResolvedACLs();
 
 LOG.debug("Updating authorization map!");
 try {
@@ -686,29 +725,78 @@ return transcribeSet(super.getTempDestinationWriteACLs());
 }
 
 /**
-* Provides synchronized access to the admin ACLs for the destinations as
-* {@link AuthorizationEntry} is not setup for concurrent access.
+* Provides access to the admin ACLs for the destinations. The ACLs of a
+* destination are resolved once under the lock, as {@link AuthorizationEntry}
+* is not setup for concurrent access, and then served from the resolved ACLs
+* until the policy changes.
 */
-public synchronized Set<Object> getAdminACLs(ActiveMQDestination destination) {
-return super.getAdminACLs(destination);
+public Set<Object> getAdminACLs(ActiveMQDestination destination) {
+ResolvedACLs resolved = resolvedACLs;
+Set<Object> acls = resolved.adminACLs.get(destination);
+if (acls == null) {
+synchronized (this) {
+acls = super.getAdminACLs(destination);
+}
+cacheACLs(resolved, resolved.adminACLs, destination, acls);
+}
+return acls;
 }
 
 /**
-* Provides synchronized access to the read ACLs for the destinations as
-* {@link AuthorizationEntry} is not setup for concurrent access.
+* Keeps the resolved ACLs of a destination. Destinations that come and go
+* would grow the cache without bound, so it is discarded as a whole once it
+* holds maxCachedACLs entries and resolved again on demand.
 */
-public synchronized Set<Object> getReadACLs(ActiveMQDestination destination) {
+private void cacheACLs(ResolvedACLs resolved, ConcurrentHashMap<ActiveMQDestination, Set<Object>> cache, ActiveMQDestination destination, Set<Object> acls) {
+if (cache.putIfAbsent(destination, acls) == null && resolved.size.incrementAndGet() > maxCachedACLs) {
+synchronized (this) {
+if (resolvedACLs == resolved) {
+invalidateResolvedACLs();
+}
+}
+}
+}
+
+/**
+* Provides access to the read ACLs for the destinations, resolved as for
+* {@link #getAdminACLs(ActiveMQDestination)}.
+*/
+public Set<Object> getReadACLs(ActiveMQDestination destination) {
+if (isUpdateDue()) {
+synchronized (this) {
 checkForUpdates();
-return super.getReadACLs(destination);
+}
+}
+ResolvedACLs resolved = resolvedACLs;
+Set<Object> acls = resolved.readACLs.get(destination);
+if (acls == null) {
+synchronized (this) {
+acls = super.getReadACLs(destination);
+}
+cacheACLs(resolved, resolved.readACLs, destination, acls);
+}
+return acls;
 }
 
 /**
-* Provides synchronized access to the write ACLs for the destinations as
-* {@link AuthorizationEntry} is not setup for concurrent access.
+* Provides access to the write ACLs for the destinations, resolved as for
+* {@link #getAdminACLs(ActiveMQDestination)}.
 */
-public synchronized Set<Object> getWriteACLs(ActiveMQDestination destination) {
+public Set<Object> getWriteACLs(ActiveMQDestination destination) {
+if (isUpdateDue()) {
+synchronized (this) {
 checkForUpdates();
-return super.getWriteACLs(destination);
+}
+}
+ResolvedACLs resolved = resolvedACLs;
+Set<Object> acls = resolved.writeACLs.get(destination);
+if (acls == null) {
+synchronized (this) {
+acls = super.getWriteACLs(destination);
+}
+cacheACLs(resolved, resolved.writeACLs, destination, acls);
+}
+return acls;
 }
 
 /**
@@ -732,6 +820,7 @@ applyACL(entry, result, permissionType);
 if (!(entry instanceof TempDestinationAuthorizationEntry)) {
 put(entry.getDestination(), entry);
 }
+invalidateResolvedACLs();
 
 } catch (InvalidNameException e) {
 LOG.error("Policy not applied!  Error parsing DN for addition of "
@@ -760,6 +849,7 @@ LdapName name = new LdapName(result.getName());
 AuthorizationEntry entry = getEntry(name, destinationType);
 
 applyAcl(entry, permissionType, new HashSet<Object>());
+invalidateResolvedACLs();
 } catch (InvalidNameException e) {
 LOG.error("Policy not applied!  Error parsing DN for object removal for removal of "
 + result.getName(), e);
@@ -828,6 +918,7 @@ entry.setDestination(newDest);
 put(newDest, entry);
 remove(oldDest, entry);
 entries.put(newDest, entry);
+invalidateResolvedACLs();
 } else {
 LOG.warn("No authorization entry for " + oldDest);
 }
@@ -1059,6 +1150,18 @@ public void setRefreshInterval(int refreshInterval) {
 this.refreshInterval = refreshInterval;
 }
 
+public int getMaxCachedACLs() {
+return maxCachedACLs;
+}
+
+/**
+* Sets the number of resolved destination ACLs kept before the cache of
+* them is discarded, which bounds it when destinations come and go.
+*/
+public void setMaxCachedACLs(int maxCachedACLs) {
+this.maxCachedACLs = maxCachedACLs;
+}
+
 protected static enum DestinationType {
 QUEUE,
 TOPIC,
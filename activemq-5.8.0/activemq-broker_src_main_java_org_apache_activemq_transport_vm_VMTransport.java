@@ -19,6 +19,7 @@ package org.apache.activemq.transport.vm;
 import java.io.IOException;
 import java.io.InterruptedIOException;
 import java.net.URI;
+import java.util.ArrayDeque;
 import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.TimeUnit;
@@ -50,6 +51,7 @@ protected boolean marshal;
 protected boolean network;
 protected boolean async = true;
 protected int asyncQueueDepth = 2000;
+protected int asyncDrainBatchSize = 100;
 protected final URI location;
 protected final long id;
 
@@ -57,6 +59,8 @@ protected final long id;
 private LinkedBlockingQueue<Object> messageQueue;
 private TaskRunnerFactory taskRunnerFactory;
 private TaskRunner taskRunner;
+// commands taken from the message queue in one go, only used by the task runner
+private final ArrayDeque<Object> drained = new ArrayDeque<Object>();
 
 // Transport State
 protected final AtomicBoolean started = new AtomicBoolean();
@@ -233,20 +237,30 @@ mq = getMessageQueue();
 return false;
 }
 
-Object command = mq.poll();
-if (command != null && !disposed.get()) {
+// take a batch of commands with a single pass over the queue lock, what is
+// left of it after a failing onCommand is dispatched on the next iteration
+if (drained.isEmpty()) {
+mq.drainTo(drained, asyncDrainBatchSize);
+}
+
+Object command;
+while ((command = drained.poll()) != null) {
+if (disposed.get()) {
+break;
+}
 if( command == DISCONNECT ) {
 tl.onException(new TransportDisposedIOException("Peer (" + peer.toString() + ") disposed."));
 } else {
 tl.onCommand(command);
 }
-return !mq.isEmpty() && !disposed.get();
-} else {
-if(disposed.get()) {
-mq.clear();
 }
+
+if (disposed.get()) {
+drained.clear();
+mq.clear();
 return false;
 }
+return !mq.isEmpty();
 }
 
 public void setTransportListener(TransportListener commandListener) {
@@ -379,6 +393,20 @@ public void setAsyncQueueDepth(int asyncQueueDepth) {
 this.asyncQueueDepth = asyncQueueDepth;
 }
 
+/**
+* @return the maximum number of queued commands dispatched per task run
+*/
+public int getAsyncDrainBatchSize() {
+return asyncDrainBatchSize;
+}
+
+/**
+* @param asyncDrainBatchSize the maximum number of queued commands dispatched per task run
+*/
+public void setAsyncDrainBatchSize(int asyncDrainBatchSize) {
+this.asyncDrainBatchSize = asyncDrainBatchSize;
+}
+
 public boolean isFaultTolerant() {
 return false;
 }
@@ -120,7 +120,7 @@ protected final MessageDispatchChannel unconsumedMessages;
 // The are the messages that were delivered to the consumer but that have
 // not been acknowledged. It's kept in reverse order since we
 // Always walk list in reverse order.
-private final LinkedList<MessageDispatch> deliveredMessages = new LinkedList<MessageDispatch>();
+private final DeliveredMessageList deliveredMessages = new DeliveredMessageList();
 // track duplicate deliveries in a transaction such that the tx integrity can be validated
 private PreviouslyDeliveredMap<MessageId, Boolean> previouslyDeliveredMessages;
 private int deliveredCounter;
@@ -1283,14 +1283,9 @@ clearPreviouslyDelivered();
 * called with deliveredMessages locked
 */
 private void removeFromDeliveredMessages(MessageId key) {
-Iterator<MessageDispatch> iterator = deliveredMessages.iterator();
-while (iterator.hasNext()) {
-MessageDispatch candidate = iterator.next();
-if (key.equals(candidate.getMessage().getMessageId())) {
-session.connection.rollbackDuplicate(this, candidate.getMessage());
-iterator.remove();
-break;
-}
+MessageDispatch removed = deliveredMessages.remove(key);
+if (removed != null) {
+session.connection.rollbackDuplicate(this, removed.getMessage());
 }
 }
 
@@ -0,0 +1,252 @@
+/**
+* Licensed to the Apache Software Foundation (ASF) under one or more
+* contributor license agreements.  See the NOTICE file distributed with
+* this work for additional information regarding copyright ownership.
+* The ASF licenses this file to You under the Apache License, Version 2.0
+* (the "License"); you may not use this file except in compliance with
+* the License.  You may obtain a copy of the License at
+*
+*      http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+package org.apache.activemq;
+
+import java.util.AbstractCollection;
+import java.util.ConcurrentModificationException;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+
+import org.apache.activemq.command.MessageDispatch;
+import org.apache.activemq.command.MessageId;
+
+/**
+* The messages a consumer has delivered but not yet acknowledged, the most
+* recently delivered first.
+*
+* The dispatches are kept in a doubly linked list that is indexed by message
+* id, so finding or removing the dispatch of an individually acknowledged
+* message does not walk the list. A dispatch is matched by identity, as the
+* LinkedList this replaces did. Should a message id be delivered again while
+* an earlier dispatch of it is still present, lookups fall back to walking
+* the list until it is cleared. This class is not thread safe, the consumer
+* guards it with its own monitor.
+*/
+class DeliveredMessageList extends AbstractCollection<MessageDispatch> {
+
+// sentinel of the circular list, head.next is the most recent dispatch
+private final Node head = new Node(null);
+private final Map<MessageId, Node> index = new HashMap<MessageId, Node>();
+private int size;
+// number of dispatches that share their message id with another one
+private int shadowed;
+private int modCount;
+
+private static final class Node {
+private final MessageDispatch md;
+private Node prev;
+private Node next;
+
+Node(MessageDispatch md) {
+this.md = md;
+}
+}
+
+DeliveredMessageList() {
+head.next = head;
+head.prev = head;
+}
+
+void addFirst(MessageDispatch md) {
+Node node = new Node(md);
+node.prev = head;
+node.next = head.next;
+head.next.prev = node;
+head.next = node;
+MessageId id = idOf(md);
+if (id != null && index.get(id) == null) {
+index.put(id, node);
+} else {
+shadowed++;
+}
+size++;
+modCount++;
+}
+
+/**
+* @return the most recently delivered dispatch
+*/
+MessageDispatch getFirst() {
+if (size == 0) {
+throw new NoSuchElementException();
+}
+return head.next.md;
+}
+
+/**
+* @return the least recently delivered dispatch
+*/
+MessageDispatch getLast() {
+if (size == 0) {
+throw new NoSuchElementException();
+}
+return head.prev.md;
+}
+
+MessageDispatch removeLast() {
+if (size == 0) {
+throw new NoSuchElementException();
+}
+Node node = head.prev;
+unlink(node);
+return node.md;
+}
+
+/**
+* Removes the dispatch of a message.
+*
+* @return the removed dispatch or null if the message is not present
+*/
+MessageDispatch remove(MessageId id) {
+Node node = index.get(id);
+if (node == null && shadowed > 0) {
+for (Node candidate = head.next; candidate != head; candidate = candidate.next) {
+if (id.equals(idOf(candidate.md))) {
+node = candidate;
+break;
+}
+}
+}
+if (node == null) {
+return null;
+}
+unlink(node);
+return node.md;
+}
+
+@Override
+public boolean contains(Object o) {
+return find(o) != null;
+}
+
+@Override
+public boolean remove(Object o) {
+Node node = find(o);
+if (node == null) {
+return false;
+}
+unlink(node);
+return true;
+}
+
+@Override
+public int size() {
+return size;
+}
+
+@Override
+public boolean isEmpty() {
+return size == 0;
+}
+
+@Override
+public void clear() {
+head.next = head;
+head.prev = head;
+index.clear();
+size = 0;
+shadowed = 0;
+modCount++;
+}
+
+/**
+* @return an iterator from the most to the least recently delivered
+*         dispatch
+*/
+@Override
+public Iterator<MessageDispatch> iterator() {
+return new NodeIterator();
+}
+
+private final class NodeIterator implements Iterator<MessageDispatch> {
+private Node next = head.next;
+private Node last;
+private int expectedModCount = modCount;
+
+public boolean hasNext() {
+return next != head;
+}
+
+public MessageDispatch next() {
+if (modCount != expectedModCount) {
+throw new ConcurrentModificationException();
+}
+if (next == head) {
+throw new NoSuchElementException();
+}
+last = next;
+next = next.next;
+return last.md;
+}
+
+public void remove() {
+if (last == null) {
+throw new IllegalStateException();
+}
+if (modCount != expectedModCount) {
+throw new ConcurrentModificationException();
+}
+unlink(last);
+last = null;
+expectedModCount = modCount;
+}
+}
+
+private Node find(Object o) {
+if (!(o instanceof MessageDispatch)) {
+return null;
+}
+MessageDispatch md = (MessageDispatch) o;
+MessageId id = idOf(md);
+if (id != null) {
+Node node = index.get(id);
+if (node != null && node.md == md) {
+return node;
+}
+}
+if (shadowed > 0) {
+for (Node candidate = head.next; candidate != head; candidate = candidate.next) {
+if (candidate.md == md) {
+return candidate;
+}
+}
+}
+return null;
+}
+
+private void unlink(Node node) {
+node.prev.next = node.next;
+node.next.prev = node.prev;
+MessageId id = idOf(node.md);
+if (id != null && index.get(id) == node) {
+index.remove(id);
+} else {
+shadowed--;
+}
+size--;
+modCount++;
+if (size == 0) {
+shadowed = 0;
+}
+}
+
+private static MessageId idOf(MessageDispatch md) {
+return md.getMessage() != null ? md.getMessage().getMessageId() : null;
+}
+}
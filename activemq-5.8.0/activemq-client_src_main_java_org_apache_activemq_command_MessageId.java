@@ -16,8 +16,6 @@
 */
 package org.apache.activemq.command;
 
-import java.util.concurrent.atomic.AtomicReference;
-
 /**
 * @openwire:marshaller code="110"
 *
@@ -33,7 +31,7 @@ protected long brokerSequenceId;
 private transient String key;
 private transient int hashCode;
 
-private transient AtomicReference<Object> dataLocator = new AtomicReference<Object>();
+private transient volatile Object dataLocator;
 private transient Object entryLocator;
 private transient Object plistLocator;
 
@@ -71,6 +69,7 @@ producerSequenceId = Long.parseLong(messageKey.substring(p + 1));
 messageKey = messageKey.substring(0, p);
 }
 producerId = new ProducerId(messageKey);
+hashCode = 0;
 }
 
 /**
@@ -95,6 +94,10 @@ return false;
 }
 
 MessageId id = (MessageId)o;
+// cheap reject before comparing the producer ids
+if (hashCode != 0 && id.hashCode != 0 && hashCode != id.hashCode) {
+return false;
+}
 return producerSequenceId == id.producerSequenceId && producerId.equals(id.producerId);
 }
 
@@ -121,6 +124,7 @@ return producerId;
 
 public void setProducerId(ProducerId producerId) {
 this.producerId = producerId;
+this.hashCode = 0;
 }
 
 /**
@@ -132,6 +136,7 @@ return producerSequenceId;
 
 public void setProducerSequenceId(long producerSequenceId) {
 this.producerSequenceId = producerSequenceId;
+this.hashCode = 0;
 }
 
 /**
@@ -153,7 +158,7 @@ public MessageId copy() {
 MessageId copy = new MessageId(producerId, producerSequenceId);
 copy.key = key;
 copy.brokerSequenceId = brokerSequenceId;
-copy.dataLocator = new AtomicReference<Object>(dataLocator != null ? dataLocator.get() : null);
+copy.dataLocator = dataLocator;
 copy.entryLocator = entryLocator;
 copy.plistLocator = plistLocator;
 return copy;
@@ -165,6 +170,9 @@ return copy;
 * @see java.lang.Comparable#compareTo(java.lang.Object)
 */
 public int compareTo(MessageId other) {
+if (this == other) {
+return 0;
+}
 int result = -1;
 if (other != null) {
 result = this.toString().compareTo(other.toString());
@@ -177,7 +185,7 @@ return result;
 * by the message stores.
 */
 public Object getDataLocator() {
-return dataLocator.get();
+return dataLocator;
 }
 
 /**
@@ -185,7 +193,7 @@ return dataLocator.get();
 * by the message stores.
 */
 public void setDataLocator(Object value) {
-this.dataLocator.set(value);
+this.dataLocator = value;
 }
 
 public Object getEntryLocator() {
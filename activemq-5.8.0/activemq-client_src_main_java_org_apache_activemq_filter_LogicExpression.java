@@ -21,6 +21,10 @@ import javax.jms.JMSException;
 /**
 * A filter performing a comparison of two objects
 *
+* Chains of the same operator are flattened when the expression is built, so
+* "a AND b AND c" is evaluated by one node looping over its operands instead of
+* recursing through nested nodes. matches() asks each operand whether it
+* matches rather than materializing the three valued result of every node.
 *
 */
 public abstract class LogicExpression extends BinaryExpression implements BooleanExpression {
@@ -34,56 +38,107 @@ super(left, right);
 }
 
 public static BooleanExpression createOR(BooleanExpression lvalue, BooleanExpression rvalue) {
-return new LogicExpression(lvalue, rvalue) {
+return new OrExpression(lvalue, rvalue);
+}
 
-public Object evaluate(MessageEvaluationContext message) throws JMSException {
+public static BooleanExpression createAND(BooleanExpression lvalue, BooleanExpression rvalue) {
+return new AndExpression(lvalue, rvalue);
+}
 
-Boolean lv = (Boolean)left.evaluate(message);
+public abstract Object evaluate(MessageEvaluationContext message) throws JMSException;
+
+public boolean matches(MessageEvaluationContext message) throws JMSException {
+Object object = evaluate(message);
+return object != null && object == Boolean.TRUE;
+}
+
+/**
+* @return the operands of the chain of expressions using the same operator
+*         as the given one, in evaluation order
+*/
+private static BooleanExpression[] flatten(Class<? extends LogicExpression> type, BooleanExpression left, BooleanExpression right) {
+BooleanExpression[] leftOperands = type.isInstance(left) ? ((FlatLogicExpression) left).operands : new BooleanExpression[] {left};
+BooleanExpression[] rightOperands = type.isInstance(right) ? ((FlatLogicExpression) right).operands : new BooleanExpression[] {right};
+BooleanExpression[] operands = new BooleanExpression[leftOperands.length + rightOperands.length];
+System.arraycopy(leftOperands, 0, operands, 0, leftOperands.length);
+System.arraycopy(rightOperands, 0, operands, leftOperands.length, rightOperands.length);
+return operands;
+}
+
+private abstract static class FlatLogicExpression extends LogicExpression {
+protected final BooleanExpression[] operands;
+
+FlatLogicExpression(BooleanExpression left, BooleanExpression right, BooleanExpression[] operands) {
+super(left, right);
+this.operands = operands;
+}
+}
+
+private static final class OrExpression extends FlatLogicExpression {
+
+OrExpression(BooleanExpression left, BooleanExpression right) {
+super(left, right, flatten(OrExpression.class, left, right));
+}
+
+public Object evaluate(MessageEvaluationContext message) throws JMSException {
+int last = operands.length - 1;
+for (int i = 0; i < last; i++) {
+Boolean value = (Boolean)operands[i].evaluate(message);
 // Can we do an OR shortcut??
-if (lv != null && lv.booleanValue()) {
+if (value != null && value.booleanValue()) {
 return Boolean.TRUE;
 }
-
-Boolean rv = (Boolean)right.evaluate(message);
+}
+Boolean rv = (Boolean)operands[last].evaluate(message);
 return rv == null ? null : rv;
 }
 
+public boolean matches(MessageEvaluationContext message) throws JMSException {
+for (int i = 0; i < operands.length; i++) {
+if (operands[i].matches(message)) {
+return true;
+}
+}
+return false;
+}
+
 public String getExpressionSymbol() {
 return "OR";
 }
-};
 }
 
-public static BooleanExpression createAND(BooleanExpression lvalue, BooleanExpression rvalue) {
-return new LogicExpression(lvalue, rvalue) {
-
-public Object evaluate(MessageEvaluationContext message) throws JMSException {
+private static final class AndExpression extends FlatLogicExpression {
 
-Boolean lv = (Boolean)left.evaluate(message);
+AndExpression(BooleanExpression left, BooleanExpression right) {
+super(left, right, flatten(AndExpression.class, left, right));
+}
 
+public Object evaluate(MessageEvaluationContext message) throws JMSException {
+Boolean value = null;
+for (int i = 0; i < operands.length; i++) {
+value = (Boolean)operands[i].evaluate(message);
 // Can we do an AND shortcut??
-if (lv == null) {
+if (value == null) {
 return null;
 }
-if (!lv.booleanValue()) {
+if (!value.booleanValue()) {
 return Boolean.FALSE;
 }
+}
+return value;
+}
 
-Boolean rv = (Boolean)right.evaluate(message);
-return rv == null ? null : rv;
+public boolean matches(MessageEvaluationContext message) throws JMSException {
+for (int i = 0; i < operands.length; i++) {
+if (!operands[i].matches(message)) {
+return false;
+}
+}
+return true;
 }
 
 public String getExpressionSymbol() {
 return "AND";
 }
-};
 }
-
-public abstract Object evaluate(MessageEvaluationContext message) throws JMSException;
-
-public boolean matches(MessageEvaluationContext message) throws JMSException {
-Object object = evaluate(message);
-return object != null && object == Boolean.TRUE;
 }
-
-}
\ No newline at end of file
@@ -42,18 +42,25 @@ this.destinationType = destinationType;
 
 public boolean matches(ActiveMQDestination destination) {
 if (destination.getDestinationType() != destinationType) return false;
-String[] path = DestinationPath.getDestinationPaths(destination.getPhysicalName());
-int length = prefixes.length;
-if (path.length >= length) {
-int size = length - 1;
+// walk the physical name in place rather than splitting it into paths, a
+// destination only matches if it has at least as many paths as the prefix
+String name = destination.getPhysicalName();
+int start = 0;
+int size = prefixes.length - 1;
 for (int i = 0; i < size; i++) {
-if (!path[i].equals(ANY_CHILD) && !prefixes[i].equals(ANY_CHILD) && !prefixes[i].equals(path[i])) {
+int end = name.indexOf(DestinationPath.SEPARATOR, start);
+if (end < 0) {
 return false;
 }
+int length = end - start;
+String prefix = prefixes[i];
+boolean anyChild = length == 1 && name.charAt(start) == '*';
+if (!anyChild && !prefix.equals(ANY_CHILD) && !(prefix.length() == length && name.regionMatches(start, prefix, 0, length))) {
+return false;
 }
-return true;
+start = end + 1;
 }
-return false;
+return true;
 }
 
 public String getText() {
@@ -16,6 +16,14 @@
 */
 package org.apache.activemq.usage;
 
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.activemq.thread.Scheduler;
+
 /**
 * Used to keep track of how much of something is being used so that a
 * productive working set usage can be controlled. Main use case is manage
@@ -26,7 +34,21 @@ package org.apache.activemq.usage;
 */
 public class MemoryUsage extends Usage<MemoryUsage> {
 
-private long usage;
+private final AtomicLong usage = new AtomicLong();
+// usage changes not yet passed on to the parent
+private final AtomicLong pendingParentUsage = new AtomicLong();
+private long parentUpdateThreshold;
+private long parentUpdateInterval = 1000;
+private Scheduler scheduler;
+// started children that hold back usage changes, flushed periodically and
+// when this usage is full
+private final Set<MemoryUsage> batchingChildren = new LinkedHashSet<MemoryUsage>();
+private boolean flushChildrenScheduled;
+private final Runnable flushChildrenTask = new Runnable() {
+public void run() {
+flushChildren();
+}
+};
 
 public MemoryUsage() {
 this(null, null);
@@ -53,6 +75,28 @@ this(parent, name, 1.0f);
 
 public MemoryUsage(MemoryUsage parent, String name, float portion) {
 super(parent, name, portion);
+if (parent != null) {
+this.parentUpdateThreshold = parent.getParentUpdateThreshold();
+this.parentUpdateInterval = parent.getParentUpdateInterval();
+}
+}
+
+public void start() {
+super.start();
+if (parent != null && parentUpdateThreshold > 0) {
+((MemoryUsage)parent).addBatchingChild(this);
+}
+}
+
+public void stop() {
+if (parent != null) {
+((MemoryUsage)parent).removeBatchingChild(this);
+flushParentUsage();
+}
+synchronized (batchingChildren) {
+cancelFlushChildren();
+}
+super.stop();
 }
 
 /**
@@ -62,6 +106,7 @@ public void waitForSpace() throws InterruptedException {
 if (parent != null) {
 parent.waitForSpace();
 }
+flushChildren();
 synchronized (usageMutex) {
 for (int i = 0; percentUsage >= 100; i++) {
 usageMutex.wait();
@@ -80,6 +125,7 @@ if (!parent.waitForSpace(timeout)) {
 return false;
 }
 }
+flushChildren();
 synchronized (usageMutex) {
 if (percentUsage >= 100) {
 usageMutex.wait(timeout);
@@ -92,6 +138,10 @@ public boolean isFull() {
 if (parent != null && parent.isFull()) {
 return true;
 }
+if (percentUsage >= 100) {
+// held back decreases of children may free up space
+flushChildren();
+}
 synchronized (usageMutex) {
 return percentUsage >= 100;
 }
@@ -118,15 +168,7 @@ public void increaseUsage(long value) {
 if (value == 0) {
 return;
 }
-int percentUsage;
-synchronized (usageMutex) {
-usage += value;
-percentUsage = caclPercentUsage();
-}
-setPercentUsage(percentUsage);
-if (parent != null) {
-((MemoryUsage)parent).increaseUsage(value);
-}
+updateUsage(usage.addAndGet(value), value);
 }
 
 /**
@@ -138,26 +180,154 @@ public void decreaseUsage(long value) {
 if (value == 0) {
 return;
 }
-int percentUsage;
-synchronized (usageMutex) {
-usage -= value;
-percentUsage = caclPercentUsage();
+updateUsage(usage.addAndGet(-value), -value);
 }
+
+private void updateUsage(long newUsage, long delta) {
+// only take the usage monitor when the percentage actually moves
+int percentUsage = caclPercentUsage();
+if (percentUsage != this.percentUsage) {
 setPercentUsage(percentUsage);
+}
 if (parent != null) {
-parent.decreaseUsage(value);
+long pending = pendingParentUsage.addAndGet(delta);
+if (parentUpdateThreshold <= 0 || Math.abs(pending) >= parentUpdateThreshold || newUsage == 0) {
+flushParentUsage();
+}
+}
+}
+
+/**
+* Passes the usage changes held back for the parent on to it.
+*/
+public void flushParentUsage() {
+long pending = pendingParentUsage.getAndSet(0);
+if (pending != 0) {
+((MemoryUsage)parent).increaseUsage(pending);
+}
+}
+
+private void flushChildren() {
+List<MemoryUsage> children;
+synchronized (batchingChildren) {
+if (batchingChildren.isEmpty()) {
+return;
+}
+children = new ArrayList<MemoryUsage>(batchingChildren);
+}
+for (MemoryUsage child : children) {
+child.flushParentUsage();
+}
+}
+
+/**
+* Registers a started child that holds back usage changes, the changes of
+* all such children are collected every parent update interval when a
+* scheduler is available, so an idle child does not leave this usage
+* overstated.
+*/
+private void addBatchingChild(MemoryUsage child) {
+synchronized (batchingChildren) {
+batchingChildren.add(child);
+if (!flushChildrenScheduled) {
+Scheduler scheduler = getScheduler();
+if (scheduler != null) {
+scheduler.executePeriodically(flushChildrenTask, parentUpdateInterval);
+flushChildrenScheduled = true;
+}
+}
+}
+}
+
+private void removeBatchingChild(MemoryUsage child) {
+synchronized (batchingChildren) {
+batchingChildren.remove(child);
+if (batchingChildren.isEmpty()) {
+cancelFlushChildren();
+}
+}
+}
+
+private void cancelFlushChildren() {
+if (flushChildrenScheduled) {
+getScheduler().cancel(flushChildrenTask);
+flushChildrenScheduled = false;
 }
 }
 
 protected long retrieveUsage() {
-return usage;
+return usage.get();
 }
 
 public long getUsage() {
-return usage;
+return usage.get();
 }
 
 public void setUsage(long usage) {
-this.usage = usage;
+this.usage.set(usage);
+pendingParentUsage.set(0);
+}
+
+/**
+* @return the number of bytes of usage changes that are collected before
+*         they are passed on to the parent
+*/
+public long getParentUpdateThreshold() {
+return parentUpdateThreshold;
+}
+
+/**
+* Sets how many bytes of usage changes are collected before they are passed
+* on to the parent, so usages sharing a parent do not all update it for
+* every message. The parent may lag behind by up to this amount per child,
+* the changes are always passed on once the usage drops to zero, within
+* the parent update interval, and whenever the parent is full or waited on.
+* Children created later take this value over, it must be set before they
+* are started. Defaults to 0 which passes on every change.
+*
+* @param parentUpdateThreshold
+*/
+public void setParentUpdateThreshold(long parentUpdateThreshold) {
+this.parentUpdateThreshold = parentUpdateThreshold;
+}
+
+/**
+* @return the longest time in milliseconds usage changes are held back
+*         from the parent
+*/
+public long getParentUpdateInterval() {
+return parentUpdateInterval;
+}
+
+/**
+* Sets the longest time in milliseconds usage changes are held back from
+* the parent when a parent update threshold is set and a scheduler is
+* available. Children created later take this value over.
+*
+* @param parentUpdateInterval
+*/
+public void setParentUpdateInterval(long parentUpdateInterval) {
+this.parentUpdateInterval = parentUpdateInterval;
+}
+
+/**
+* @return the scheduler that collects the held back usage changes of
+*         children, the one of the parent if none is set
+*/
+public Scheduler getScheduler() {
+if (scheduler == null && parent != null) {
+return ((MemoryUsage)parent).getScheduler();
+}
+return scheduler;
+}
+
+/**
+* Sets the scheduler used to periodically collect the usage changes held
+* back by children, usually the one of the broker.
+*
+* @param scheduler
+*/
+public void setScheduler(Scheduler scheduler) {
+this.scheduler = scheduler;
 }
 }
\ No newline at end of file
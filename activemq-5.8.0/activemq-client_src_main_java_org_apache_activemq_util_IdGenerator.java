@@ -32,9 +32,9 @@ private static final Logger LOG = LoggerFactory.getLogger(IdGenerator.class);
 private static final String UNIQUE_STUB;
 private static int instanceCount;
 private static String hostName;
-private String seed;
-private AtomicLong sequence = new AtomicLong(1);
-private int length;
+private final String seed;
+private final AtomicLong sequence = new AtomicLong(1);
+private final int length;
 
 static {
 String stub = "";
@@ -96,12 +96,13 @@ return hostName;
 
 
 /**
-* Generate a unqiue id
+* Generate a unqiue id, the sequence is atomic so callers do not need to
+* serialize on the generator
 *
 * @return a unique id
 */
 
-public synchronized String generateId() {
+public String generateId() {
 StringBuilder sb = new StringBuilder(length);
 sb.append(seed);
 sb.append(sequence.getAndIncrement());
@@ -0,0 +1,260 @@
+/**
+* Licensed to the Apache Software Foundation (ASF) under one or more
+* contributor license agreements.  See the NOTICE file distributed with
+* this work for additional information regarding copyright ownership.
+* The ASF licenses this file to You under the Apache License, Version 2.0
+* (the "License"); you may not use this file except in compliance with
+* the License.  You may obtain a copy of the License at
+*
+*      http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+package org.apache.activemq.util;
+
+import java.util.AbstractCollection;
+import java.util.Collection;
+import java.util.ConcurrentModificationException;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+* A map keyed by primitive longs that iterates its values in insertion order.
+*
+* Entries are appended to parallel key and value arrays, an open addressing
+* hash table with linear probing maps a key to its entry slot. Removed
+* entries leave a hole that is reclaimed when the entry arrays are compacted,
+* so put, get and remove are O(1) amortized and no object is allocated per
+* entry. This class is not thread safe.
+*/
+public class LongLinkedHashMap<V> {
+
+private static final int DEFAULT_CAPACITY = 16;
+
+// entry slots in insertion order, a null value marks a removed entry
+private long[] keys;
+private Object[] values;
+private int used;
+private int size;
+// open addressing table holding entry slot + 1, 0 marks an empty bucket
+private int[] table;
+private int modCount;
+
+public LongLinkedHashMap() {
+this(DEFAULT_CAPACITY);
+}
+
+public LongLinkedHashMap(int initialCapacity) {
+int capacity = DEFAULT_CAPACITY;
+while (capacity < initialCapacity) {
+capacity <<= 1;
+}
+keys = new long[capacity];
+values = new Object[capacity];
+table = new int[capacity * 2];
+}
+
+public int size() {
+return size;
+}
+
+public boolean isEmpty() {
+return size == 0;
+}
+
+public boolean containsKey(long key) {
+return bucketOf(key) >= 0;
+}
+
+@SuppressWarnings("unchecked")
+public V get(long key) {
+int bucket = bucketOf(key);
+return bucket < 0 ? null : (V) values[table[bucket] - 1];
+}
+
+/**
+* Adds or replaces the value for a key, a replaced value keeps its position
+* in the iteration order.
+*
+* @return the previous value or null
+*/
+@SuppressWarnings("unchecked")
+public V put(long key, V value) {
+if (value == null) {
+throw new IllegalArgumentException("null values are not supported");
+}
+int bucket = bucketOf(key);
+if (bucket >= 0) {
+int slot = table[bucket] - 1;
+V previous = (V) values[slot];
+values[slot] = value;
+return previous;
+}
+if (used == keys.length) {
+resize();
+}
+keys[used] = key;
+values[used] = value;
+used++;
+insert(key, used);
+size++;
+modCount++;
+return null;
+}
+
+@SuppressWarnings("unchecked")
+public V remove(long key) {
+int bucket = bucketOf(key);
+if (bucket < 0) {
+return null;
+}
+int slot = table[bucket] - 1;
+V previous = (V) values[slot];
+values[slot] = null;
+delete(bucket);
+size--;
+modCount++;
+if (size == 0) {
+used = 0;
+}
+return previous;
+}
+
+public void clear() {
+for (int i = 0; i < used; i++) {
+values[i] = null;
+}
+for (int i = 0; i < table.length; i++) {
+table[i] = 0;
+}
+used = 0;
+size = 0;
+modCount++;
+}
+
+/**
+* @return a live view of the values in insertion order, the view does not
+*         support removal.
+*/
+public Collection<V> values() {
+return new AbstractCollection<V>() {
+@Override
+public Iterator<V> iterator() {
+return new ValueIterator();
+}
+
+@Override
+public int size() {
+return size;
+}
+};
+}
+
+private final class ValueIterator implements Iterator<V> {
+private final int expectedModCount = modCount;
+private int next = advance(0);
+
+private int advance(int from) {
+while (from < used && values[from] == null) {
+from++;
+}
+return from;
+}
+
+public boolean hasNext() {
+return next < used;
+}
+
+@SuppressWarnings("unchecked")
+public V next() {
+if (modCount != expectedModCount) {
+throw new ConcurrentModificationException();
+}
+if (next >= used) {
+throw new NoSuchElementException();
+}
+V value = (V) values[next];
+next = advance(next + 1);
+return value;
+}
+
+public void remove() {
+throw new UnsupportedOperationException();
+}
+}
+
+private static int hash(long key) {
+long h = key * 0x9E3779B97F4A7C15L;
+return (int) (h ^ (h >>> 32));
+}
+
+private int bucketOf(long key) {
+int mask = table.length - 1;
+int bucket = hash(key) & mask;
+while (table[bucket] != 0) {
+if (keys[table[bucket] - 1] == key) {
+return bucket;
+}
+bucket = (bucket + 1) & mask;
+}
+return -1;
+}
+
+private void insert(long key, int slotPlusOne) {
+int mask = table.length - 1;
+int bucket = hash(key) & mask;
+while (table[bucket] != 0) {
+bucket = (bucket + 1) & mask;
+}
+table[bucket] = slotPlusOne;
+}
+
+/**
+* Backward shift deletion keeps the probe sequences intact without tombstones.
+*/
+private void delete(int bucket) {
+int mask = table.length - 1;
+int hole = bucket;
+table[hole] = 0;
+int next = (hole + 1) & mask;
+while (table[next] != 0) {
+int ideal = hash(keys[table[next] - 1]) & mask;
+boolean movable = hole <= next ? (ideal <= hole || ideal > next) : (ideal <= hole && ideal > next);
+if (movable) {
+table[hole] = table[next];
+table[next] = 0;
+hole = next;
+}
+next = (next + 1) & mask;
+}
+}
+
+/**
+* Compacts the entry arrays when at least half of them are holes, otherwise
+* doubles them, then rebuilds the hash table for the new slot positions.
+*/
+private void resize() {
+int capacity = size * 2 <= keys.length ? keys.length : keys.length * 2;
+long[] newKeys = new long[capacity];
+Object[] newValues = new Object[capacity];
+int j = 0;
+for (int i = 0; i < used; i++) {
+if (values[i] != null) {
+newKeys[j] = keys[i];
+newValues[j] = values[i];
+j++;
+}
+}
+keys = newKeys;
+values = newValues;
+used = j;
+table = new int[capacity * 2];
+for (int i = 0; i < used; i++) {
+insert(keys[i], i + 1);
+}
+}
+}
@@ -17,6 +17,13 @@
 package org.apache.activemq.transport.ws;
 
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.CharacterCodingException;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
 import java.util.concurrent.CountDownLatch;
 
 import org.apache.activemq.command.Command;
@@ -39,11 +46,18 @@ import org.slf4j.LoggerFactory;
 */
 class StompSocket extends TransportSupport implements WebSocket.OnTextMessage, StompTransport {
 private static final Logger LOG = LoggerFactory.getLogger(StompSocket.class);
+// frames up to this size are encoded into a buffer kept by the socket
+private static final int MAX_ENCODE_BUFFER_SIZE = 4 * 1024;
 
 Connection outbound;
 ProtocolConverter protocolConverter = new ProtocolConverter(this, null);
 StompWireFormat wireFormat = new StompWireFormat();
 private final CountDownLatch socketTransportStarted = new CountDownLatch(1);
+// replaces malformed input like String.getBytes() does
+private final CharsetEncoder encoder = Charset.forName("UTF-8").newEncoder()
+.onMalformedInput(CodingErrorAction.REPLACE)
+.onUnmappableCharacter(CodingErrorAction.REPLACE);
+private ByteBuffer encodeBuffer;
 
 @Override
 public void onOpen(Connection connection) {
@@ -73,12 +87,59 @@ LOG.warn("While waiting for StompSocket to be properly started, we got interrupt
 
 
 try {
-protocolConverter.onStompCommand((StompFrame)wireFormat.unmarshal(new ByteSequence(data.getBytes("UTF-8"))));
+protocolConverter.onStompCommand((StompFrame)wireFormat.unmarshal(encode(data)));
 } catch (Exception e) {
 onException(IOExceptionSupport.create(e));
 }
 }
 
+/**
+* Encodes a frame received as text to UTF-8. Jetty delivers the messages of
+* a connection one at a time, and the wire format copies what it keeps out
+* of the bytes it unmarshals, so the buffer is reused for the next frame.
+*/
+private ByteSequence encode(String data) throws CharacterCodingException {
+int length = utf8Length(data);
+ByteBuffer buffer = encodeBuffer;
+if (buffer == null || buffer.capacity() < length) {
+buffer = ByteBuffer.allocate(length);
+if (length <= MAX_ENCODE_BUFFER_SIZE) {
+encodeBuffer = buffer;
+}
+}
+buffer.clear();
+encoder.reset();
+CoderResult result = encoder.encode(CharBuffer.wrap(data), buffer, true);
+if (result.isError()) {
+result.throwException();
+}
+encoder.flush(buffer);
+return new ByteSequence(buffer.array(), 0, buffer.position());
+}
+
+/**
+* @return the length of the string encoded as UTF-8, a malformed surrogate
+*         is counted as three bytes which is more than its replacement
+*/
+private static int utf8Length(String data) {
+int length = data.length();
+for (int i = 0; i < data.length(); i++) {
+char c = data.charAt(i);
+if (c >= 0x800) {
+if (Character.isHighSurrogate(c) && i + 1 < data.length() && Character.isLowSurrogate(data.charAt(i + 1))) {
+// four bytes for the two chars of the pair
+length += 2;
+i++;
+} else {
+length += 2;
+}
+} else if (c >= 0x80) {
+length += 1;
+}
+}
+return length;
+}
+
 private boolean transportStartedAtLeastOnce() {
 return socketTransportStarted.getCount() == 0;
 }
@@ -0,0 +1,130 @@
+/**
+* Licensed to the Apache Software Foundation (ASF) under one or more
+* contributor license agreements.  See the NOTICE file distributed with
+* this work for additional information regarding copyright ownership.
+* The ASF licenses this file to You under the Apache License, Version 2.0
+* (the "License"); you may not use this file except in compliance with
+* the License.  You may obtain a copy of the License at
+*
+*      http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+package org.apache.activemq.store.jdbc;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.List;
+
+import org.apache.activemq.util.IOExceptionSupport;
+
+/**
+* Groups the non transactional writes of concurrent callers into one JDBC
+* transaction.
+*
+* The first caller to find no batch in progress becomes the leader, it takes
+* the queued writes, applies them to a single TransactionContext so the
+* adapter adds them to the same batched statements, and commits once. The
+* other callers wait for the batch holding their write to complete, a
+* failure of the batch is reported to every write in it.
+*/
+class JDBCBatchWriter {
+
+private final JDBCPersistenceAdapter persistenceAdapter;
+private final int maxBatchSize;
+private final LinkedList<Write> queue = new LinkedList<Write>();
+private boolean flushing;
+
+/**
+* A store operation that can be applied as part of a batch.
+*/
+abstract static class Write {
+private boolean done;
+private IOException failure;
+
+abstract void execute(TransactionContext c) throws SQLException, IOException;
+}
+
+JDBCBatchWriter(JDBCPersistenceAdapter persistenceAdapter, int maxBatchSize) {
+this.persistenceAdapter = persistenceAdapter;
+this.maxBatchSize = maxBatchSize;
+}
+
+/**
+* Queues the write and returns once the batch holding it is committed.
+*/
+void write(Write write) throws IOException {
+synchronized (this) {
+queue.add(write);
+}
+while (true) {
+List<Write> batch;
+synchronized (this) {
+while (!write.done && flushing) {
+try {
+wait();
+} catch (InterruptedException e) {
+Thread.currentThread().interrupt();
+throw new InterruptedIOException("Interrupted waiting for a JDBC batch to complete");
+}
+}
+if (write.done) {
+break;
+}
+flushing = true;
+batch = new ArrayList<Write>(Math.min(queue.size(), maxBatchSize));
+while (!queue.isEmpty() && batch.size() < maxBatchSize) {
+batch.add(queue.removeFirst());
+}
+}
+IOException failure = null;
+try {
+flush(batch);
+} catch (IOException e) {
+failure = e;
+} catch (RuntimeException e) {
+failure = IOExceptionSupport.create(e);
+}
+synchronized (this) {
+for (Write done : batch) {
+done.failure = failure;
+done.done = true;
+}
+flushing = false;
+notifyAll();
+}
+}
+if (write.failure != null) {
+throw write.failure;
+}
+}
+
+private void flush(List<Write> batch) throws IOException {
+TransactionContext c = persistenceAdapter.getTransactionContext();
+c.begin();
+try {
+for (Write write : batch) {
+write.execute(c);
+}
+} catch (SQLException e) {
+JDBCPersistenceAdapter.log("JDBC Failure: ", e);
+c.rollback();
+throw IOExceptionSupport.create("Failed to write a batch of " + batch.size() + " operations. Reason: " + e, e);
+} catch (IOException e) {
+c.rollback();
+throw e;
+} catch (RuntimeException e) {
+c.rollback();
+throw e;
+}
+// commit executes the batched statements and rolls back if they fail
+c.commit();
+}
+}
@@ -119,6 +119,13 @@ throw IOExceptionSupport.create("Failed to broker message: " + messageId + " in
 
 // Get a connection and insert the message into the DB.
 TransactionContext c = persistenceAdapter.getTransactionContext(context);
+JDBCBatchWriter batchWriter = getBatchWriter(context, c);
+if (batchWriter != null) {
+batchWriter.write(new AddMessageWrite(sequenceId, messageId, data, message.getExpiration(),
+this.isPrioritizedMessages() ? message.getPriority() : 0));
+onAdd(messageId, sequenceId, message.getPriority());
+return;
+}
 try {
 adapter.doAddMessage(c, sequenceId, messageId, destination, data, message.getExpiration(),
 this.isPrioritizedMessages() ? message.getPriority() : 0, context != null ? context.getXid() : null);
@@ -138,6 +145,52 @@ onAdd(messageId, sequenceId, message.getPriority());
 protected void onAdd(MessageId messageId, long sequenceId, byte priority) {
 }
 
+/**
+* @return the writer to hand the operation to or null when it has to run
+*         on the given context, either because batching is off or because
+*         it is part of a transaction
+*/
+private JDBCBatchWriter getBatchWriter(ConnectionContext context, TransactionContext c) {
+if (c.isInTransaction() || (context != null && context.getXid() != null)) {
+return null;
+}
+return persistenceAdapter.getBatchWriter();
+}
+
+private final class AddMessageWrite extends JDBCBatchWriter.Write {
+private final long sequenceId;
+private final MessageId messageId;
+private final byte[] data;
+private final long expiration;
+private final byte priority;
+
+AddMessageWrite(long sequenceId, MessageId messageId, byte[] data, long expiration, byte priority) {
+this.sequenceId = sequenceId;
+this.messageId = messageId;
+this.data = data;
+this.expiration = expiration;
+this.priority = priority;
+}
+
+@Override
+void execute(TransactionContext c) throws SQLException, IOException {
+adapter.doAddMessage(c, sequenceId, messageId, destination, data, expiration, priority, null);
+}
+}
+
+private final class RemoveMessageWrite extends JDBCBatchWriter.Write {
+private final long sequenceId;
+
+RemoveMessageWrite(long sequenceId) {
+this.sequenceId = sequenceId;
+}
+
+@Override
+void execute(TransactionContext c) throws SQLException, IOException {
+adapter.doRemoveMessage(c, sequenceId, null);
+}
+}
+
 public void addMessageReference(ConnectionContext context, MessageId messageId, long expirationTime, String messageRef) throws IOException {
 // Get a connection and insert the message into the DB.
 TransactionContext c = persistenceAdapter.getTransactionContext(context);
@@ -195,6 +248,11 @@ long seq = persistenceAdapter.getStoreSequenceIdForMessageId(ack.getLastMessageI
 
 // Get a connection and remove the message from the DB
 TransactionContext c = persistenceAdapter.getTransactionContext(context);
+JDBCBatchWriter batchWriter = getBatchWriter(context, c);
+if (batchWriter != null) {
+batchWriter.write(new RemoveMessageWrite(seq));
+return;
+}
 try {
 adapter.doRemoveMessage(c, seq, context != null ? context.getXid() : null);
 } catch (SQLException e) {
@@ -103,6 +103,8 @@ protected ActiveMQMessageAudit audit;
 
 protected LongSequenceGenerator sequenceGenerator = new LongSequenceGenerator();
 protected int maxRows = DefaultJDBCAdapter.MAX_ROWS;
+private int writeBatchSize;
+private JDBCBatchWriter batchWriter;
 
 {
 setLockKeepAlivePeriod(DEFAULT_LOCK_KEEP_ALIVE_PERIOD);
@@ -722,6 +724,28 @@ public void setMaxRows(int maxRows) {
 this.maxRows = maxRows;
 }
 
+public int getWriteBatchSize() {
+return writeBatchSize;
+}
+
+/**
+* Sets the maximum number of non transactional message adds and removes from
+* concurrent producers and consumers that are written in one JDBC batch and
+* committed together, 0 (the default) writes each in its own transaction
+*/
+public synchronized void setWriteBatchSize(int writeBatchSize) {
+this.writeBatchSize = writeBatchSize;
+this.batchWriter = writeBatchSize > 0 ? new JDBCBatchWriter(this, writeBatchSize) : null;
+}
+
+/**
+* @return the writer grouping non transactional writes or null when write
+*         batching is disabled
+*/
+synchronized JDBCBatchWriter getBatchWriter() {
+return batchWriter;
+}
+
 public void recover(JdbcMemoryTransactionStore jdbcMemoryTransactionStore) throws IOException {
 TransactionContext c = getTransactionContext();
 try {
@@ -48,6 +48,7 @@ private String findLastSequenceIdInAcksStatement;
 private String createDurableSubStatement;
 private String findDurableSubStatement;
 private String findAllDurableSubsStatement;
+private String findAllDurableSubLastAcksStatement;
 private String updateLastPriorityAckRowOfDurableSubStatement;
 private String deleteSubscriptionStatement;
 private String findAllDurableSubMessagesStatement;
@@ -261,6 +262,14 @@ findAllDurableSubsStatement = "SELECT SELECTOR, SUB_NAME, CLIENT_ID, SUB_DEST" +
 return findAllDurableSubsStatement;
 }
 
+public String getFindAllDurableSubLastAcksStatement() {
+if (findAllDurableSubLastAcksStatement == null) {
+findAllDurableSubLastAcksStatement = "SELECT CLIENT_ID, SUB_NAME, LAST_ACKED_ID FROM "
++ getFullAckTableName() + " WHERE CONTAINER=?";
+}
+return findAllDurableSubLastAcksStatement;
+}
+
 public String getUpdateLastPriorityAckRowOfDurableSubStatement() {
 if (updateLastPriorityAckRowOfDurableSubStatement == null) {
 updateLastPriorityAckRowOfDurableSubStatement = "UPDATE " + getFullAckTableName() + " SET LAST_ACKED_ID=?"
@@ -784,6 +793,10 @@ public void setFindAllDurableSubsStatement(String findAllDurableSubsStatment) {
 this.findAllDurableSubsStatement = findAllDurableSubsStatment;
 }
 
+public void setFindAllDurableSubLastAcksStatement(String findAllDurableSubLastAcksStatement) {
+this.findAllDurableSubLastAcksStatement = findAllDurableSubLastAcksStatement;
+}
+
 public void setFindAllMessagesStatement(String findAllMessagesStatment) {
 this.findAllMessagesStatement = findAllMessagesStatment;
 }
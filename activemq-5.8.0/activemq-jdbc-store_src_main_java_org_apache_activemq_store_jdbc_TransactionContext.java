@@ -21,6 +21,8 @@ import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.SQLException;
 import java.sql.Statement;
+import java.util.LinkedHashSet;
+import java.util.Set;
 
 import javax.sql.DataSource;
 
@@ -44,6 +46,7 @@ private boolean inTx;
 private PreparedStatement addMessageStatement;
 private PreparedStatement removedMessageStatement;
 private PreparedStatement updateLastAckStatement;
+private Set<Runnable> completions;
 // a cheap dirty level that we can live with
 private int transactionIsolation = Connection.TRANSACTION_READ_UNCOMMITTED;
 
@@ -120,6 +123,7 @@ p.close();
 
 public void close() throws IOException {
 if (!inTx) {
+boolean committed = false;
 try {
 
 /**
@@ -135,6 +139,7 @@ if (connection != null && !connection.getAutoCommit()) {
 connection.commit();
 }
 }
+committed = true;
 
 } catch (SQLException e) {
 JDBCPersistenceAdapter.log("Error while closing connection: ", e);
@@ -148,10 +153,43 @@ connection.close();
 LOG.warn("Close failed: " + e.getMessage(), e);
 } finally {
 connection = null;
+if (committed) {
+fireCompletions();
+} else {
+completions = null;
 }
 }
 }
 }
+}
+
+/**
+* Registers a task to run once the work of the current transaction, or of
+* the current batch when not in a transaction, has been committed. The task
+* is dropped when the work is rolled back or fails. A task equal to one
+* already registered is only run once.
+*/
+public void onCompletion(Runnable task) {
+if (completions == null) {
+completions = new LinkedHashSet<Runnable>();
+}
+completions.add(task);
+}
+
+private void fireCompletions() {
+if (completions == null) {
+return;
+}
+Set<Runnable> tasks = completions;
+completions = null;
+for (Runnable task : tasks) {
+try {
+task.run();
+} catch (Throwable e) {
+LOG.warn("Completion task failed: " + e.getMessage(), e);
+}
+}
+}
 
 public void begin() throws IOException {
 if (inTx) {
@@ -186,6 +224,7 @@ public void rollback() throws IOException {
 if (!inTx) {
 throw new IOException("Not started.");
 }
+completions = null;
 try {
 if (addMessageStatement != null) {
 addMessageStatement.close();
@@ -210,6 +249,10 @@ close();
 }
 }
 
+public boolean isInTransaction() {
+return inTx;
+}
+
 public PreparedStatement getAddMessageStatement() {
 return addMessageStatement;
 }
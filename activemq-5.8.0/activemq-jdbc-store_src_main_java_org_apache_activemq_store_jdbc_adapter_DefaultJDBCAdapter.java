@@ -25,7 +25,10 @@ import java.sql.Statement;
 import java.util.ArrayList;
 import java.util.HashSet;
 import java.util.LinkedList;
+import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.locks.ReadWriteLock;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
 
@@ -67,6 +70,26 @@ protected boolean batchStatments = true;
 protected boolean prioritizedMessages;
 protected ReadWriteLock cleanupExclusiveLock = new ReentrantReadWriteLock();
 protected int maxRows = MAX_ROWS;
+protected boolean useSharedDurableScan;
+protected int sharedScanWindowSize = 1000;
+protected long sharedScanCacheSize = 8 * 1024 * 1024;
+// rows of each destination read by the shared durable scan
+private final ConcurrentHashMap<String, ScanWindow> scanWindows = new ConcurrentHashMap<String, ScanWindow>();
+// message bytes held by the cached windows
+private final AtomicLong scanWindowBytes = new AtomicLong();
+// bumped whenever rows may have become visible below a window, a window
+// read under an older version is never served again
+private final AtomicLong scanVersion = new AtomicLong();
+private final ConcurrentHashMap<String, AtomicLong> scanDestinationVersions = new ConcurrentHashMap<String, AtomicLong>();
+// last acked id of each durable subscription of a destination, only
+// changed once the changes to the subscriptions have been committed
+private final ConcurrentHashMap<String, Map<String, Long>> scanLastAcks = new ConcurrentHashMap<String, Map<String, Long>>();
+// bumped by every change to the last acks of a destination, so a load that
+// overlapped a change is not cached
+private final ConcurrentHashMap<String, AtomicLong> scanLastAckVersions = new ConcurrentHashMap<String, AtomicLong>();
+private final AtomicLong sharedScanQueries = new AtomicLong();
+private final AtomicLong sharedScanRowsScanned = new AtomicLong();
+private final AtomicLong sharedScanRowsDelivered = new AtomicLong();
 
 protected void setBinaryData(PreparedStatement s, int index, byte data[]) throws SQLException {
 s.setBytes(index, data);
@@ -232,6 +255,10 @@ setBinaryData(s, 8, xidVal);
 } else {
 setBinaryData(s, 8, null);
 }
+if (useSharedDurableScan) {
+// the row may commit below rows a window has already read
+c.onCompletion(new ScanInvalidation(destination.getQualifiedName()));
+}
 if (this.batchStatments) {
 s.addBatch();
 } else if (s.executeUpdate() != 1) {
@@ -451,6 +478,7 @@ s.setString(2, destination.getQualifiedName());
 s.setString(3, clientId);
 s.setString(4, subscriptionName);
 s.setLong(5, priority);
+c.onCompletion(new LastAckInvalidation(destination.getQualifiedName()));
 if (this.batchStatments) {
 s.addBatch();
 } else if (s.executeUpdate() != 1) {
@@ -487,6 +515,11 @@ s.setLong(1, seq);
 s.setString(2, destination.getQualifiedName());
 s.setString(3, clientId);
 s.setString(4, subscriptionName);
+if (xid == null) {
+c.onCompletion(new LastAckUpdate(destination.getQualifiedName(), clientId + ":" + subscriptionName, seq));
+} else {
+c.onCompletion(new LastAckInvalidation(destination.getQualifiedName()));
+}
 
 if (this.batchStatments) {
 s.addBatch();
@@ -518,6 +551,7 @@ PreparedStatement s = null;
 cleanupExclusiveLock.readLock().lock();
 try {
 s = c.getConnection().prepareStatement(this.statements.getClearDurableLastAckInTxStatement());
+c.onCompletion(new LastAckInvalidation(destination.getQualifiedName()));
 s.setString(1, destination.getQualifiedName());
 s.setString(2, clientId);
 s.setString(3, subName);
@@ -567,6 +601,10 @@ close(s);
 public void doRecoverNextMessages(TransactionContext c, ActiveMQDestination destination, String clientId,
 String subscriptionName, long seq, long priority, int maxReturned, JDBCMessageRecoveryListener listener) throws Exception {
 
+if (useSharedDurableScan && !this.statements.isUseExternalMessageReferences()) {
+doRecoverNextMessagesFromSharedScan(c, destination, clientId, subscriptionName, seq, maxReturned, listener);
+return;
+}
 PreparedStatement s = null;
 ResultSet rs = null;
 cleanupExclusiveLock.readLock().lock();
@@ -599,6 +637,308 @@ close(s);
 }
 }
 
+/**
+* Serves the next messages of a durable subscriber from rows of the
+* destination that are read once and shared by all its subscribers, rather
+* than running the per subscriber join for each page. The rows handed out
+* are the ones the join would return: those after both the given sequence
+* and the subscription's last acked id.
+*/
+protected void doRecoverNextMessagesFromSharedScan(TransactionContext c, ActiveMQDestination destination, String clientId,
+String subscriptionName, long seq, int maxReturned, JDBCMessageRecoveryListener listener) throws Exception {
+Long lastAcked = getSharedScanLastAcks(c, destination).get(clientId + ":" + subscriptionName);
+if (lastAcked == null) {
+// no such subscription, the join would not return any row
+return;
+}
+long from = Math.max(seq, lastAcked.longValue());
+int limit = Math.min(maxReturned * 2, maxRows);
+int examined = 0;
+int count = 0;
+while (count < maxReturned && examined < limit) {
+ScanWindow window = getScanWindow(c, destination, from);
+int i = window.indexAfter(from);
+if (i == window.ids.length) {
+break;
+}
+for (; i < window.ids.length && count < maxReturned && examined < limit; i++) {
+examined++;
+from = window.ids[i];
+sharedScanRowsDelivered.incrementAndGet();
+if (listener.recoverMessage(window.ids[i], window.data[i])) {
+count++;
+}
+}
+if (window.complete && i == window.ids.length) {
+// read up to the end of the table, a new window is read on the next call
+break;
+}
+}
+}
+
+private ScanWindow getScanWindow(TransactionContext c, ActiveMQDestination destination, long from) throws SQLException, IOException {
+String key = destination.getQualifiedName();
+AtomicLong destinationVersion = getScanDestinationVersion(key);
+ScanWindow window = scanWindows.get(key);
+if (window != null && window.covers(from) && window.isCurrent(scanVersion.get(), destinationVersion.get())) {
+return window;
+}
+// taken before the query so a commit that races with it outdates the window
+long version = scanVersion.get();
+long currentDestinationVersion = destinationVersion.get();
+PreparedStatement s = null;
+ResultSet rs = null;
+cleanupExclusiveLock.readLock().lock();
+try {
+s = c.getConnection().prepareStatement(this.statements.getFindNextMessagesStatement());
+s.setMaxRows(sharedScanWindowSize);
+s.setString(1, key);
+s.setLong(2, from);
+rs = s.executeQuery();
+ArrayList<Long> ids = new ArrayList<Long>();
+ArrayList<byte[]> data = new ArrayList<byte[]>();
+long bytes = 0;
+while (rs.next() && ids.size() < sharedScanWindowSize) {
+ids.add(rs.getLong(1));
+byte[] row = getBinaryData(rs, 2);
+data.add(row);
+bytes += row != null ? row.length : 0;
+}
+sharedScanQueries.incrementAndGet();
+sharedScanRowsScanned.addAndGet(ids.size());
+window = new ScanWindow(from, ids, data, ids.size() < sharedScanWindowSize, version, currentDestinationVersion, bytes);
+} finally {
+cleanupExclusiveLock.readLock().unlock();
+close(rs);
+close(s);
+}
+if (window.ids.length == 0 || !window.isCurrent(scanVersion.get(), destinationVersion.get())
+|| scanWindowBytes.get() + window.bytes > sharedScanCacheSize) {
+// still serves this call, but is not kept
+dropScanWindow(key);
+} else {
+ScanWindow previous = scanWindows.put(key, window);
+scanWindowBytes.addAndGet(window.bytes - (previous != null ? previous.bytes : 0));
+}
+return window;
+}
+
+private AtomicLong getScanDestinationVersion(String key) {
+return getVersion(scanDestinationVersions, key);
+}
+
+private static AtomicLong getVersion(ConcurrentHashMap<String, AtomicLong> versions, String key) {
+AtomicLong version = versions.get(key);
+if (version == null) {
+AtomicLong created = new AtomicLong();
+version = versions.putIfAbsent(key, created);
+if (version == null) {
+version = created;
+}
+}
+return version;
+}
+
+private void dropScanWindow(String key) {
+ScanWindow previous = scanWindows.remove(key);
+if (previous != null) {
+scanWindowBytes.addAndGet(-previous.bytes);
+}
+}
+
+private void invalidateScanWindows(String key) {
+getScanDestinationVersion(key).incrementAndGet();
+dropScanWindow(key);
+}
+
+private void invalidateAllScanWindows() {
+scanVersion.incrementAndGet();
+for (String key : scanWindows.keySet()) {
+dropScanWindow(key);
+}
+}
+
+/**
+* Outdates the shared scan windows of a destination, or of all destinations
+* when it has none, once a transaction context completes.
+*/
+private final class ScanInvalidation implements Runnable {
+private final String destination;
+
+ScanInvalidation(String destination) {
+this.destination = destination;
+}
+
+public void run() {
+if (destination != null) {
+invalidateScanWindows(destination);
+} else {
+invalidateAllScanWindows();
+}
+}
+
+@Override
+public boolean equals(Object o) {
+if (!(o instanceof ScanInvalidation)) {
+return false;
+}
+ScanInvalidation other = (ScanInvalidation) o;
+return destination == null ? other.destination == null : destination.equals(other.destination);
+}
+
+@Override
+public int hashCode() {
+return destination == null ? 0 : destination.hashCode();
+}
+}
+
+private Map<String, Long> getSharedScanLastAcks(TransactionContext c, ActiveMQDestination destination) throws SQLException, IOException {
+String key = destination.getQualifiedName();
+Map<String, Long> lastAcks = scanLastAcks.get(key);
+if (lastAcks != null) {
+return lastAcks;
+}
+AtomicLong version = getVersion(scanLastAckVersions, key);
+long loadVersion = version.get();
+lastAcks = new ConcurrentHashMap<String, Long>();
+PreparedStatement s = null;
+ResultSet rs = null;
+cleanupExclusiveLock.readLock().lock();
+try {
+s = c.getConnection().prepareStatement(this.statements.getFindAllDurableSubLastAcksStatement());
+s.setString(1, key);
+rs = s.executeQuery();
+sharedScanQueries.incrementAndGet();
+while (rs.next()) {
+String subscriptionKey = rs.getString(1) + ":" + rs.getString(2);
+long lastAcked = rs.getLong(3);
+Long previous = lastAcks.get(subscriptionKey);
+// a subscription has a row per priority, the lowest one is the safe bound
+if (previous == null || lastAcked < previous.longValue()) {
+lastAcks.put(subscriptionKey, lastAcked);
+}
+}
+} finally {
+cleanupExclusiveLock.readLock().unlock();
+close(rs);
+close(s);
+}
+if (version.get() == loadVersion) {
+scanLastAcks.put(key, lastAcks);
+if (version.get() != loadVersion) {
+// a change committed while caching, it may have missed the map
+scanLastAcks.remove(key, lastAcks);
+}
+}
+return lastAcks;
+}
+
+/**
+* Drops the cached last acks of a destination once a change to its durable
+* subscriptions has been committed.
+*/
+private final class LastAckInvalidation implements Runnable {
+private final String destination;
+
+LastAckInvalidation(String destination) {
+this.destination = destination;
+}
+
+public void run() {
+getVersion(scanLastAckVersions, destination).incrementAndGet();
+scanLastAcks.remove(destination);
+}
+
+@Override
+public boolean equals(Object o) {
+return o instanceof LastAckInvalidation && destination.equals(((LastAckInvalidation) o).destination);
+}
+
+@Override
+public int hashCode() {
+return destination.hashCode();
+}
+}
+
+/**
+* Moves the cached last ack of a durable subscription forward once the ack
+* has been committed.
+*/
+private final class LastAckUpdate implements Runnable {
+private final String destination;
+private final String subscriptionKey;
+private final long seq;
+
+LastAckUpdate(String destination, String subscriptionKey, long seq) {
+this.destination = destination;
+this.subscriptionKey = subscriptionKey;
+this.seq = seq;
+}
+
+public void run() {
+getVersion(scanLastAckVersions, destination).incrementAndGet();
+Map<String, Long> lastAcks = scanLastAcks.get(destination);
+if (lastAcks != null) {
+Long previous = lastAcks.get(subscriptionKey);
+if (previous != null && seq > previous.longValue()) {
+lastAcks.put(subscriptionKey, seq);
+}
+}
+}
+}
+
+/**
+* A run of consecutive rows of a destination following a sequence id, as read
+* by one query of the shared durable scan.
+*/
+private static final class ScanWindow {
+final long after;
+final long[] ids;
+final byte[][] data;
+final boolean complete;
+final long version;
+final long destinationVersion;
+final long bytes;
+
+ScanWindow(long after, ArrayList<Long> ids, ArrayList<byte[]> data, boolean complete, long version, long destinationVersion, long bytes) {
+this.after = after;
+this.ids = new long[ids.size()];
+for (int i = 0; i < this.ids.length; i++) {
+this.ids[i] = ids.get(i);
+}
+this.data = data.toArray(new byte[data.size()][]);
+this.complete = complete;
+this.version = version;
+this.destinationVersion = destinationVersion;
+this.bytes = bytes;
+}
+
+boolean isCurrent(long version, long destinationVersion) {
+return this.version == version && this.destinationVersion == destinationVersion;
+}
+
+/**
+* @return true if the window holds the rows that directly follow seq
+*/
+boolean covers(long seq) {
+return ids.length > 0 && seq >= after && seq < ids[ids.length - 1];
+}
+
+int indexAfter(long seq) {
+int low = 0;
+int high = ids.length;
+while (low < high) {
+int mid = (low + high) >>> 1;
+if (ids[mid] <= seq) {
+low = mid + 1;
+} else {
+high = mid;
+}
+}
+return low;
+}
+}
+
 public void doRecoverNextMessagesWithPriority(TransactionContext c, ActiveMQDestination destination, String clientId,
 String subscriptionName, long seq, long priority, int maxReturned, JDBCMessageRecoveryListener listener) throws Exception {
 
@@ -691,6 +1031,7 @@ close(s);
 }
 }
 s = c.getConnection().prepareStatement(this.statements.getCreateDurableSubStatement());
+c.onCompletion(new LastAckInvalidation(info.getDestination().getQualifiedName()));
 int maxPriority = 1;
 if (isPrioritizedMessages) {
 maxPriority = 10;
@@ -779,6 +1120,8 @@ PreparedStatement s = null;
 cleanupExclusiveLock.readLock().lock();
 try {
 s = c.getConnection().prepareStatement(this.statements.getRemoveAllMessagesStatement());
+c.onCompletion(new ScanInvalidation(destinationName.getQualifiedName()));
+c.onCompletion(new LastAckInvalidation(destinationName.getQualifiedName()));
 s.setString(1, destinationName.getQualifiedName());
 s.executeUpdate();
 s.close();
@@ -797,6 +1140,7 @@ PreparedStatement s = null;
 cleanupExclusiveLock.readLock().lock();
 try {
 s = c.getConnection().prepareStatement(this.statements.getDeleteSubscriptionStatement());
+c.onCompletion(new LastAckInvalidation(destination.getQualifiedName()));
 s.setString(1, destination.getQualifiedName());
 s.setString(2, clientId);
 s.setString(3, subscriptionName);
@@ -818,6 +1162,9 @@ int priority = priorityIterator++%10;
 s.setInt(1, priority);
 s.setInt(2, priority);
 int i = s.executeUpdate();
+if (i > 0) {
+invalidateAllScanWindows();
+}
 LOG.debug("Deleted " + i + " old message(s) at priority: " + priority);
 } finally {
 cleanupExclusiveLock.writeLock().unlock();
@@ -924,6 +1271,73 @@ public void setMaxRows(int maxRows) {
 this.maxRows = maxRows;
 }
 
+public boolean isUseSharedDurableScan() {
+return this.useSharedDurableScan;
+}
+
+/**
+* Recover the next messages of durable subscribers that are not prioritized
+* from rows of the destination read once and shared by all of them, instead of
+* querying the message table for every subscriber
+*/
+public void setUseSharedDurableScan(boolean useSharedDurableScan) {
+this.useSharedDurableScan = useSharedDurableScan;
+if (!useSharedDurableScan) {
+invalidateAllScanWindows();
+for (AtomicLong version : scanLastAckVersions.values()) {
+version.incrementAndGet();
+}
+scanLastAcks.clear();
+}
+}
+
+public int getSharedScanWindowSize() {
+return this.sharedScanWindowSize;
+}
+
+/**
+* The number of rows of a destination the shared durable scan reads and keeps
+* in memory at a time
+*/
+public void setSharedScanWindowSize(int sharedScanWindowSize) {
+this.sharedScanWindowSize = sharedScanWindowSize;
+}
+
+public long getSharedScanCacheSize() {
+return this.sharedScanCacheSize;
+}
+
+/**
+* The number of message bytes the windows of the shared durable scan may keep
+* in memory across all destinations, a window that does not fit is used for
+* the page it was read for and then dropped
+*/
+public void setSharedScanCacheSize(long sharedScanCacheSize) {
+this.sharedScanCacheSize = sharedScanCacheSize;
+}
+
+/**
+* @return the number of queries run by the shared durable scan
+*/
+public long getSharedScanQueries() {
+return sharedScanQueries.get();
+}
+
+/**
+* @return the number of message rows read by the shared durable scan
+*/
+public long getSharedScanRowsScanned() {
+return sharedScanRowsScanned.get();
+}
+
+/**
+* @return the number of message rows the shared durable scan handed to
+*         subscribers
+*/
+public long getSharedScanRowsDelivered() {
+return sharedScanRowsDelivered.get();
+}
+
 @Override
 public void doRecordDestination(TransactionContext c, ActiveMQDestination destination) throws SQLException, IOException {
 PreparedStatement s = null;
@@ -996,6 +1410,10 @@ s.setLong(1, sequence);
 if (s.executeUpdate() != 1) {
 throw new IOException("Could not remove prepared transaction state from message add for sequenceId: " + sequence);
 }
+if (useSharedDurableScan) {
+// the committed message may sit below rows already read by the shared scan
+c.onCompletion(new ScanInvalidation(null));
+}
 } finally {
 cleanupExclusiveLock.readLock().unlock();
 close(s);
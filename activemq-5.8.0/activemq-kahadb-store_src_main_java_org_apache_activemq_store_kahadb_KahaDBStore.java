@@ -98,6 +98,9 @@ private boolean concurrentStoreAndDispatchQueues = true;
 private boolean concurrentStoreAndDispatchTopics = false;
 private boolean concurrentStoreAndDispatchTransactions = false;
 private int maxAsyncJobs = MAX_ASYNC_JOBS;
+// group commit of async adds, disabled when the batch size is < 2
+private int groupCommitMaxBatchSize = 0;
+private long groupCommitWindow = 0;
 private final KahaDBTransactionStore transactionStore;
 private TransactionIdTransformer transactionIdTransformer;
 
@@ -175,6 +178,105 @@ public void setMaxAsyncJobs(int maxAsyncJobs) {
 this.maxAsyncJobs = maxAsyncJobs;
 }
 
+/**
+* @return the maximum number of async adds coalesced into one journal batch
+*/
+public int getGroupCommitMaxBatchSize() {
+return this.groupCommitMaxBatchSize;
+}
+
+/**
+* When greater than one, async adds queued by any destination are coalesced
+* into a single journal batch and index transaction of up to this many
+* messages. Each producer completes when the shared batch completes.
+*
+* @param groupCommitMaxBatchSize
+*            the groupCommitMaxBatchSize to set
+*/
+public void setGroupCommitMaxBatchSize(int groupCommitMaxBatchSize) {
+this.groupCommitMaxBatchSize = groupCommitMaxBatchSize;
+}
+
+/**
+* @return the time in milliseconds a group commit waits for more adds
+*/
+public long getGroupCommitWindow() {
+return this.groupCommitWindow;
+}
+
+/**
+* @param groupCommitWindow
+*            the time in milliseconds a group commit waits for more adds
+*            to arrive before it is written, 0 only takes adds that are
+*            already queued
+*/
+public void setGroupCommitWindow(long groupCommitWindow) {
+this.groupCommitWindow = groupCommitWindow;
+}
+
+boolean isGroupCommit() {
+return this.groupCommitMaxBatchSize > 1;
+}
+
+/**
+* Stores the first task together with any further async add tasks taken
+* from the executor queue within the group commit window.
+*/
+void storeGroup(StoreQueueTask first, BlockingQueue<Runnable> queue) {
+List<StoreQueueTask> batch = new ArrayList<StoreQueueTask>(groupCommitMaxBatchSize);
+batch.add(first);
+try {
+long deadline = System.currentTimeMillis() + groupCommitWindow;
+while (batch.size() < groupCommitMaxBatchSize) {
+long remaining = deadline - System.currentTimeMillis();
+Runnable next = remaining > 0 ? queue.poll(remaining, TimeUnit.MILLISECONDS) : queue.poll();
+if (next == null) {
+break;
+}
+StoreQueueTask task = (StoreQueueTask) next;
+task.store.doneTasks++;
+if (task.done.compareAndSet(false, true)) {
+batch.add(task);
+} else {
+// cancelled, it never reaches afterExecute now
+task.releaseLocks();
+}
+}
+} catch (InterruptedException e) {
+Thread.currentThread().interrupt();
+}
+
+try {
+List<KahaAddMessageCommand> commands = new ArrayList<KahaAddMessageCommand>(batch.size());
+boolean sync = false;
+for (StoreQueueTask task : batch) {
+commands.add(task.store.createAddMessageCommand(task.message));
+sync |= isEnableJournalDiskSyncs() && task.message.isResponseRequired();
+}
+store(commands, sync);
+} catch (Exception e) {
+for (StoreQueueTask task : batch) {
+task.future.setException(e);
+if (task != first) {
+task.releaseLocks();
+}
+}
+return;
+}
+
+for (StoreQueueTask task : batch) {
+try {
+task.stored();
+} catch (Exception e) {
+task.future.setException(e);
+} finally {
+if (task != first) {
+task.releaseLocks();
+}
+}
+}
+}
+
 @Override
 public void doStart() throws Exception {
 super.doStart();
@@ -421,6 +523,12 @@ removeMessage(context, ack);
 }
 
 public void addMessage(ConnectionContext context, Message message) throws IOException {
+KahaAddMessageCommand command = createAddMessageCommand(message);
+store(command, isEnableJournalDiskSyncs() && message.isResponseRequired(), null, null);
+
+}
+
+KahaAddMessageCommand createAddMessageCommand(Message message) throws IOException {
 KahaAddMessageCommand command = new KahaAddMessageCommand();
 command.setDestination(dest);
 command.setMessageId(message.getMessageId().toString());
@@ -429,8 +537,7 @@ command.setPriority(message.getPriority());
 command.setPrioritySupported(isPrioritizedMessages());
 org.apache.activemq.util.ByteSequence packet = wireFormat.marshal(message);
 command.setMessage(new Buffer(packet.getData(), packet.getOffset(), packet.getLength()));
-store(command, isEnableJournalDiskSyncs() && message.isResponseRequired(), null, null);
-
+return command;
 }
 
 public void removeMessage(ConnectionContext context, MessageAck ack) throws IOException {
@@ -1188,9 +1295,12 @@ public void run() {
 this.store.doneTasks++;
 try {
 if (this.done.compareAndSet(false, true)) {
+if (isGroupCommit()) {
+storeGroup(this, asyncQueueJobQueue);
+} else {
 this.store.addMessage(context, message);
-removeQueueTask(this.store, this.message.getMessageId());
-this.future.complete();
+stored();
+}
 } else if (cancelledTaskModMetric > 0 && this.store.canceledTasks++ % cancelledTaskModMetric == 0) {
 System.err.println(this.store.dest.getName() + " cancelled: "
 + (this.store.canceledTasks / this.store.doneTasks) * 100);
@@ -1201,6 +1311,14 @@ this.future.setException(e);
 }
 }
 
+/**
+* Completes the task once its message is in the store.
+*/
+protected void stored() throws IOException {
+removeQueueTask(this.store, this.message.getMessageId());
+this.future.complete();
+}
+
 protected Message getMessage() {
 return this.message;
 }
@@ -1271,11 +1389,7 @@ return this.subscriptionKeys.size() >= this.subscriptionCount;
 }
 
 @Override
-public void run() {
-this.store.doneTasks++;
-try {
-if (this.done.compareAndSet(false, true)) {
-this.topicStore.addMessage(context, message);
+protected void stored() throws IOException {
 // apply any acks we have
 synchronized (this.subscriptionKeys) {
 for (String key : this.subscriptionKeys) {
@@ -1285,6 +1399,19 @@ this.topicStore.doAcknowledge(context, key, this.message.getMessageId(), null);
 }
 removeTopicTask(this.topicStore, this.message.getMessageId());
 this.future.complete();
+}
+
+@Override
+public void run() {
+this.store.doneTasks++;
+try {
+if (this.done.compareAndSet(false, true)) {
+if (isGroupCommit()) {
+storeGroup(this, asyncTopicJobQueue);
+} else {
+this.topicStore.addMessage(context, message);
+stored();
+}
 } else if (cancelledTaskModMetric > 0 && this.store.canceledTasks++ % cancelledTaskModMetric == 0) {
 System.err.println(this.store.dest.getName() + " cancelled: "
 + (this.store.canceledTasks / this.store.doneTasks) * 100);
@@ -38,6 +38,7 @@ import java.util.HashSet;
 import java.util.Iterator;
 import java.util.LinkedHashMap;
 import java.util.LinkedHashSet;
+import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
@@ -46,6 +47,12 @@ import java.util.SortedSet;
 import java.util.Stack;
 import java.util.TreeMap;
 import java.util.TreeSet;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
@@ -89,9 +96,11 @@ import org.apache.activemq.util.ByteSequence;
 import org.apache.activemq.util.Callback;
 import org.apache.activemq.util.DataByteArrayInputStream;
 import org.apache.activemq.util.DataByteArrayOutputStream;
+import org.apache.activemq.util.IOExceptionSupport;
 import org.apache.activemq.util.IOHelper;
 import org.apache.activemq.util.ServiceStopper;
 import org.apache.activemq.util.ServiceSupport;
+import org.apache.activemq.util.ThreadPoolUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -231,6 +240,10 @@ private float indexLFUEvictionFactor = 0.2f;
 private boolean enableIndexDiskSyncs = true;
 private boolean enableIndexRecoveryFile = true;
 private boolean enableIndexPageCaching = true;
+private boolean enableIndexPrefixCompression = false;
+private int recoveryReadThreads = 1;
+private final AtomicLong recoveredJournalCommands = new AtomicLong();
+private boolean enableIncrementalJournalGC = false;
 
 public MessageDatabase() {
 }
@@ -420,6 +433,7 @@ checkpointThread.join();
 public void unload() throws IOException, InterruptedException {
 this.indexLock.writeLock().lock();
 try {
+journalFileReferencesValid = false;
 if( pageFile != null && pageFile.isLoaded() ) {
 metadata.state = CLOSED_STATE;
 metadata.firstInProgressTransactionLocation = getInProgressTxLocationRange()[0];
@@ -559,16 +573,25 @@ Location recoveryPosition = minimum(producerAuditPosition, lastIndoubtPosition);
 
 if (recoveryPosition != null) {
 int redoCounter = 0;
+recoveredJournalCommands.set(0);
 LOG.info("Recovering from the journal ...");
-while (recoveryPosition != null) {
-JournalCommand<?> message = load(recoveryPosition);
+RecoveryReader reader = new RecoveryReader(recoveryPosition, getRecoveryReadThreads());
+try {
+while (reader.hasNext()) {
+recoveryPosition = reader.getLocation();
+JournalCommand<?> message = reader.next();
 metadata.lastUpdate = recoveryPosition;
 process(message, recoveryPosition, lastIndoubtPosition);
 redoCounter++;
-recoveryPosition = journal.getNextLocation(recoveryPosition);
+recoveredJournalCommands.incrementAndGet();
 if (LOG.isInfoEnabled() && redoCounter % 100000 == 0) {
-LOG.info("@" + recoveryPosition +  ", "  + redoCounter + " entries recovered ..");
+long elapsed = Math.max(System.currentTimeMillis() - start, 1);
+LOG.info("@" + recoveryPosition +  ", "  + redoCounter + " entries recovered, "
++ (redoCounter * 1000L / elapsed) + " entries/s, data file: " + recoveryPosition.getDataFileId() + " ..");
+}
 }
+} finally {
+reader.close();
 }
 if (LOG.isInfoEnabled()) {
 long end = System.currentTimeMillis();
@@ -577,7 +600,7 @@ LOG.info("Recovery replayed " + redoCounter + " operations from the journal in "
 }
 
 // We may have to undo some index updates.
-pageFile.tx().execute(new Transaction.Closure<IOException>() {
+executeIndexUpdate(new Transaction.Closure<IOException>() {
 @Override
 public void execute(Transaction tx) throws IOException {
 recoverIndex(tx);
@@ -605,6 +628,86 @@ this.indexLock.writeLock().unlock();
 }
 }
 
+/**
+* Walks the journal from a start location handing back decoded commands in
+* journal order. With more than one thread the records are read and decoded
+* ahead of the replay on a small pool, the replay itself stays single
+* threaded since it updates the index.
+*/
+private class RecoveryReader {
+private final ExecutorService executor;
+private final int readAhead;
+private final LinkedList<Location> locations = new LinkedList<Location>();
+private final LinkedList<Future<JournalCommand<?>>> commands = new LinkedList<Future<JournalCommand<?>>>();
+private Location nextLocation;
+
+RecoveryReader(Location start, int threads) {
+this.nextLocation = start;
+if (threads > 1) {
+this.readAhead = threads * 64;
+this.executor = Executors.newFixedThreadPool(threads, new ThreadFactory() {
+@Override
+public Thread newThread(Runnable runnable) {
+Thread thread = new Thread(runnable, "KahaDB Recovery Reader");
+thread.setDaemon(true);
+return thread;
+}
+});
+} else {
+this.readAhead = 0;
+this.executor = null;
+}
+}
+
+boolean hasNext() throws IOException {
+fill();
+return !locations.isEmpty() || nextLocation != null;
+}
+
+Location getLocation() {
+return executor != null ? locations.getFirst() : nextLocation;
+}
+
+JournalCommand<?> next() throws IOException {
+if (executor == null) {
+JournalCommand<?> message = load(nextLocation);
+nextLocation = journal.getNextLocation(nextLocation);
+return message;
+}
+locations.removeFirst();
+try {
+return commands.removeFirst().get();
+} catch (InterruptedException e) {
+throw new InterruptedIOException(e.toString());
+} catch (ExecutionException e) {
+if (e.getCause() instanceof IOException) {
+throw (IOException) e.getCause();
+}
+throw IOExceptionSupport.create(e);
+}
+}
+
+private void fill() throws IOException {
+while (executor != null && nextLocation != null && locations.size() < readAhead) {
+final Location location = nextLocation;
+locations.add(location);
+commands.add(executor.submit(new Callable<JournalCommand<?>>() {
+@Override
+public JournalCommand<?> call() throws Exception {
+return load(location);
+}
+}));
+nextLocation = journal.getNextLocation(location);
+}
+}
+
+void close() {
+if (executor != null) {
+ThreadPoolUtils.shutdownNow(executor);
+}
+}
+}
+
 @SuppressWarnings("unused")
 private KahaTransactionInfo createLocalTransactionInfo(TransactionId tx) {
 return TransactionIdConversion.convertToLocal(tx);
@@ -662,7 +765,7 @@ matches.add(value);
 
 for (Long sequenceId : matches) {
 MessageKeys keys = sd.orderIndex.remove(tx, sequenceId);
-sd.locationIndex.remove(tx, keys.location);
+removeLocation(tx, sd, keys.location);
 sd.messageIdIndex.remove(tx, keys.messageId);
 metadata.producerSequenceIdTracker.rollback(keys.messageId);
 undoCounter++;
@@ -765,7 +868,7 @@ if( ignoreMissingJournalfiles ) {
 // Update the index to remove the references to the missing data
 for (Long sequenceId : matches) {
 MessageKeys keys = sd.orderIndex.remove(tx, sequenceId);
-sd.locationIndex.remove(tx, keys.location);
+removeLocation(tx, sd, keys.location);
 sd.messageIdIndex.remove(tx, keys.messageId);
 undoCounter++;
 // TODO: do we need to modify the ack positions for the pub sub case?
@@ -949,6 +1052,52 @@ throw ioe;
 }
 }
 
+/**
+* Group commit variant of store for non transactional message adds. The
+* commands are appended to the journal back to back, only the last append
+* is synced, and all the index updates are applied in a single page file
+* transaction, so a batch costs one fsync and one index commit no matter
+* how many destinations it spans.
+*/
+public Location[] store(final List<KahaAddMessageCommand> commands, boolean sync) throws IOException {
+final Location[] locations = new Location[commands.size()];
+try {
+long start = System.currentTimeMillis();
+for (int i = 0; i < locations.length; i++) {
+locations[i] = journal.write(toByteSequence(commands.get(i)), sync && i == locations.length - 1);
+}
+long start2 = System.currentTimeMillis();
+this.indexLock.writeLock().lock();
+try {
+executeIndexUpdate(new Transaction.Closure<IOException>() {
+@Override
+public void execute(Transaction tx) throws IOException {
+for (int i = 0; i < locations.length; i++) {
+upadateIndex(tx, commands.get(i), locations[i]);
+}
+}
+});
+} finally {
+this.indexLock.writeLock().unlock();
+}
+long end = System.currentTimeMillis();
+if( LOG_SLOW_ACCESS_TIME>0 && end-start > LOG_SLOW_ACCESS_TIME) {
+if (LOG.isInfoEnabled()) {
+LOG.info("Slow KahaDB access: Journal batch append of " + locations.length + " took: "+(start2-start)+" ms, Index update took "+(end-start2)+" ms");
+}
+}
+
+if (checkpointThread != null && !checkpointThread.isAlive()) {
+startCheckpoint();
+}
+return locations;
+} catch (IOException ioe) {
+LOG.error("KahaDB failed to store batch to Journal", ioe);
+brokerService.handleIOException(ioe);
+throw ioe;
+}
+}
+
 /**
 * Loads a previously stored JournalMessage
 *
@@ -1060,7 +1209,7 @@ inflightTx.add(new AddOpperation(command, location));
 } else {
 this.indexLock.writeLock().lock();
 try {
-pageFile.tx().execute(new Transaction.Closure<IOException>() {
+executeIndexUpdate(new Transaction.Closure<IOException>() {
 @Override
 public void execute(Transaction tx) throws IOException {
 upadateIndex(tx, command, location);
@@ -1080,7 +1229,7 @@ inflightTx.add(new RemoveOpperation(command, location));
 } else {
 this.indexLock.writeLock().lock();
 try {
-pageFile.tx().execute(new Transaction.Closure<IOException>() {
+executeIndexUpdate(new Transaction.Closure<IOException>() {
 @Override
 public void execute(Transaction tx) throws IOException {
 updateIndex(tx, command, location);
@@ -1095,7 +1244,7 @@ this.indexLock.writeLock().unlock();
 protected void process(final KahaRemoveDestinationCommand command, final Location location) throws IOException {
 this.indexLock.writeLock().lock();
 try {
-pageFile.tx().execute(new Transaction.Closure<IOException>() {
+executeIndexUpdate(new Transaction.Closure<IOException>() {
 @Override
 public void execute(Transaction tx) throws IOException {
 updateIndex(tx, command, location);
@@ -1109,7 +1258,7 @@ this.indexLock.writeLock().unlock();
 protected void process(final KahaSubscriptionCommand command, final Location location) throws IOException {
 this.indexLock.writeLock().lock();
 try {
-pageFile.tx().execute(new Transaction.Closure<IOException>() {
+executeIndexUpdate(new Transaction.Closure<IOException>() {
 @Override
 public void execute(Transaction tx) throws IOException {
 updateIndex(tx, command, location);
@@ -1159,7 +1308,7 @@ return;
 final List<Operation> messagingTx = inflightTx;
 this.indexLock.writeLock().lock();
 try {
-pageFile.tx().execute(new Transaction.Closure<IOException>() {
+executeIndexUpdate(new Transaction.Closure<IOException>() {
 @Override
 public void execute(Transaction tx) throws IOException {
 for (Operation op : messagingTx) {
@@ -1235,7 +1384,7 @@ return;
 // Add the message.
 int priority = command.getPrioritySupported() ? command.getPriority() : javax.jms.Message.DEFAULT_PRIORITY;
 long id = sd.orderIndex.getNextMessageId(priority);
-Long previous = sd.locationIndex.put(tx, location, id);
+Long previous = putLocation(tx, sd, location, id);
 if (previous == null) {
 previous = sd.messageIdIndex.put(tx, command.getMessageId(), id);
 if (previous == null) {
@@ -1249,7 +1398,7 @@ addAckLocationForNewMessage(tx, sd, id);
 // message. Bad BOY! Don't do it, and log a warning.
 LOG.warn("Duplicate message add attempt rejected. Destination: " + command.getDestination().getName() + ", Message id: " + command.getMessageId());
 sd.messageIdIndex.put(tx, command.getMessageId(), previous);
-sd.locationIndex.remove(tx, location);
+removeLocation(tx, sd, location);
 rollbackStatsOnDuplicate(command.getDestination());
 }
 } else {
@@ -1277,7 +1426,7 @@ Long sequenceId = sd.messageIdIndex.remove(tx, command.getMessageId());
 if (sequenceId != null) {
 MessageKeys keys = sd.orderIndex.remove(tx, sequenceId);
 if (keys != null) {
-sd.locationIndex.remove(tx, keys.location);
+removeLocation(tx, sd, keys.location);
 recordAckMessageReferenceLocation(ackLocation, keys.location);
 }  else if (LOG.isDebugEnabled()) {
 LOG.debug("message not found in order index: " + sequenceId  + " for: " + command.getMessageId());
@@ -1327,7 +1476,7 @@ void updateIndex(Transaction tx, KahaRemoveDestinationCommand command, Location
 StoredDestination sd = getStoredDestination(command.getDestination(), tx);
 sd.orderIndex.remove(tx);
 
-sd.locationIndex.clear(tx);
+clearLocations(tx, sd);
 sd.locationIndex.unload(tx);
 tx.free(sd.locationIndex.getPageId());
 
@@ -1378,7 +1527,7 @@ removeAckLocationsForSub(tx, sd, subscriptionKey);
 
 if (sd.subscriptions.isEmpty(tx)) {
 sd.messageIdIndex.clear(tx);
-sd.locationIndex.clear(tx);
+clearLocations(tx, sd);
 sd.orderIndex.clear(tx);
 }
 }
@@ -1433,6 +1582,21 @@ if (LOG.isTraceEnabled()) {
 LOG.trace("gc candidates after tx range:" + Arrays.asList(inProgressTxRange) + ", " + gcCandidateSet);
 }
 
+if (enableIncrementalJournalGC) {
+if (!journalFileReferencesValid) {
+rebuildJournalFileReferences(tx);
+}
+// Any data file still referenced by a location index entry is in use.
+for (Iterator<Integer> candidates = gcCandidateSet.iterator(); candidates.hasNext(); ) {
+Integer references = journalFileReferences.get(candidates.next());
+if (references != null && references.intValue() > 0) {
+candidates.remove();
+}
+}
+if (LOG.isTraceEnabled()) {
+LOG.trace("gc candidates after reference counts: " + gcCandidateSet);
+}
+} else {
 // Go through all the destinations to see if any of them can remove GC candidates.
 for (Entry<String, StoredDestination> entry : storedDestinations.entrySet()) {
 if( gcCandidateSet.isEmpty() ) {
@@ -1483,6 +1647,7 @@ if (LOG.isTraceEnabled()) {
 LOG.trace("gc candidates after dest:" + entry.getKey() + ", " + gcCandidateSet);
 }
 }
+}
 
 // check we are not deleting file with ack for in-use journal files
 if (LOG.isTraceEnabled()) {
@@ -1547,6 +1712,80 @@ return location;
 return metadata.producerSequenceIdTrackerLocation;
 }
 
+/**
+* Rebuilds the per data file reference counts with a full scan of the
+* location indexes. Only needed once after a load or a failed update, the
+* counts are maintained by the index updates from then on.
+*/
+private void rebuildJournalFileReferences(Transaction tx) throws IOException {
+long start = System.currentTimeMillis();
+journalFileReferences.clear();
+for (StoredDestination sd : storedDestinations.values()) {
+for (Iterator<Entry<Location, Long>> iterator = sd.locationIndex.iterator(tx); iterator.hasNext(); ) {
+adjustJournalFileReferences(iterator.next().getKey().getDataFileId(), 1);
+}
+}
+journalFileReferencesValid = true;
+if (LOG.isDebugEnabled()) {
+LOG.debug("Rebuilt journal data file reference counts in " + (System.currentTimeMillis() - start) + " ms: " + journalFileReferences);
+}
+}
+
+/**
+* Runs an index update that may add or remove location index entries. The
+* reference counts are adjusted as the update goes, so an update that fails
+* and rolls back leaves them off. They are then invalidated before the
+* caller releases the indexLock write lock it must hold, so checkpoint
+* cleanup rebuilds them instead of trusting them.
+*/
+private void executeIndexUpdate(Transaction.Closure<IOException> closure) throws IOException {
+boolean updated = false;
+try {
+pageFile.tx().execute(closure);
+updated = true;
+} finally {
+if (!updated) {
+journalFileReferencesValid = false;
+}
+}
+}
+
+private void adjustJournalFileReferences(int dataFileId, int delta) {
+Integer key = Integer.valueOf(dataFileId);
+Integer references = journalFileReferences.get(key);
+int count = (references == null ? 0 : references.intValue()) + delta;
+if (count > 0) {
+journalFileReferences.put(key, Integer.valueOf(count));
+} else {
+journalFileReferences.remove(key);
+}
+}
+
+private Long putLocation(Transaction tx, StoredDestination sd, Location location, Long id) throws IOException {
+Long previous = sd.locationIndex.put(tx, location, id);
+if (previous == null && journalFileReferencesValid) {
+adjustJournalFileReferences(location.getDataFileId(), 1);
+}
+return previous;
+}
+
+private Long removeLocation(Transaction tx, StoredDestination sd, Location location) throws IOException {
+Long previous = sd.locationIndex.remove(tx, location);
+if (previous != null && journalFileReferencesValid) {
+adjustJournalFileReferences(location.getDataFileId(), -1);
+}
+return previous;
+}
+
+private void clearLocations(Transaction tx, StoredDestination sd) throws IOException {
+if (journalFileReferencesValid) {
+for (Iterator<Entry<Location, Long>> iterator = sd.locationIndex.iterator(tx); iterator.hasNext(); ) {
+adjustJournalFileReferences(iterator.next().getKey().getDataFileId(), -1);
+}
+}
+sd.locationIndex.clear(tx);
+}
+
 public HashSet<Integer> getJournalFilesBeingReplicated() {
 return journalFilesBeingReplicated;
 }
@@ -1557,6 +1796,11 @@ return journalFilesBeingReplicated;
 
 private final HashMap<String, StoredDestination> storedDestinations = new HashMap<String, StoredDestination>();
 
+// Number of location index entries referencing each journal data file, used
+// by checkpoint cleanup instead of scanning every location index.
+private final HashMap<Integer, Integer> journalFileReferences = new HashMap<Integer, Integer>();
+private volatile boolean journalFileReferencesValid = false;
+
 class StoredSubscription {
 SubscriptionInfo subscriptionInfo;
 String lastAckId;
@@ -1847,6 +2091,7 @@ rc.locationIndex.load(tx);
 
 rc.messageIdIndex.setKeyMarshaller(StringMarshaller.INSTANCE);
 rc.messageIdIndex.setValueMarshaller(LongMarshaller.INSTANCE);
+rc.messageIdIndex.setPrefixCompression(isEnableIndexPrefixCompression());
 rc.messageIdIndex.load(tx);
 
 // If it was a topic...
@@ -1854,10 +2099,12 @@ if (topic) {
 
 rc.subscriptions.setKeyMarshaller(StringMarshaller.INSTANCE);
 rc.subscriptions.setValueMarshaller(KahaSubscriptionCommandMarshaller.INSTANCE);
+rc.subscriptions.setPrefixCompression(isEnableIndexPrefixCompression());
 rc.subscriptions.load(tx);
 
 rc.subscriptionAcks.setKeyMarshaller(StringMarshaller.INSTANCE);
 rc.subscriptionAcks.setValueMarshaller(new LastAckMarshaller());
+rc.subscriptionAcks.setPrefixCompression(isEnableIndexPrefixCompression());
 rc.subscriptionAcks.load(tx);
 
 rc.ackPositions.setKeyMarshaller(StringMarshaller.INSTANCE);
@@ -2028,7 +2275,7 @@ sd.orderIndex.getDeleteList(tx, deletes, sequenceId);
 
 // Do the actual deletes.
 for (Entry<Long, MessageKeys> entry : deletes) {
-sd.locationIndex.remove(tx, entry.getValue().location);
+removeLocation(tx, sd, entry.getValue().location);
 sd.messageIdIndex.remove(tx, entry.getValue().messageId);
 sd.orderIndex.remove(tx, entry.getKey());
 }
@@ -2073,7 +2320,7 @@ sd.orderIndex.getDeleteList(tx, deletes, messageSequence);
 
 // Do the actual deletes.
 for (Entry<Long, MessageKeys> entry : deletes) {
-sd.locationIndex.remove(tx, entry.getValue().location);
+removeLocation(tx, sd, entry.getValue().location);
 sd.messageIdIndex.remove(tx, entry.getValue().messageId);
 sd.orderIndex.remove(tx, entry.getKey());
 }
@@ -2465,6 +2712,50 @@ public boolean isEnableIndexPageCaching() {
 return enableIndexPageCaching;
 }
 
+/**
+* Once enabled, index pages are written in a format older brokers cannot read.
+*/
+public void setEnableIndexPrefixCompression(boolean enableIndexPrefixCompression) {
+this.enableIndexPrefixCompression = enableIndexPrefixCompression;
+}
+
+public boolean isEnableIndexPrefixCompression() {
+return enableIndexPrefixCompression;
+}
+
+public int getRecoveryReadThreads() {
+return recoveryReadThreads;
+}
+
+/**
+* @param recoveryReadThreads the number of threads that read and decode journal
+*                            records ahead of the replay during recovery
+*/
+public void setRecoveryReadThreads(int recoveryReadThreads) {
+this.recoveryReadThreads = recoveryReadThreads;
+}
+
+public boolean isEnableIncrementalJournalGC() {
+return enableIncrementalJournalGC;
+}
+
+/**
+* When enabled, checkpoint cleanup decides which journal data files are still
+* in use from per data file reference counts kept up to date by the index
+* updates, instead of scanning the location index of every destination
+* while holding the index lock.
+*/
+public void setEnableIncrementalJournalGC(boolean enableIncrementalJournalGC) {
+this.enableIncrementalJournalGC = enableIncrementalJournalGC;
+}
+
+/**
+* @return the number of journal commands replayed by the current or last recovery
+*/
+public long getRecoveredJournalCommands() {
+return recoveredJournalCommands.get();
+}
+
 // /////////////////////////////////////////////////////////////////
 // Internal conversion methods.
 // /////////////////////////////////////////////////////////////////
@@ -20,16 +20,28 @@ import java.io.File;
 import java.io.FileFilter;
 import java.io.IOException;
 import java.nio.charset.Charset;
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.HashSet;
-import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.management.ObjectName;
 
 import org.apache.activemq.broker.BrokerService;
 import org.apache.activemq.broker.BrokerServiceAware;
 import org.apache.activemq.broker.ConnectionContext;
+import org.apache.activemq.broker.jmx.AnnotatedMBean;
 import org.apache.activemq.command.ActiveMQDestination;
 import org.apache.activemq.command.ActiveMQQueue;
 import org.apache.activemq.command.ActiveMQTopic;
@@ -47,8 +59,10 @@ import org.apache.activemq.store.TransactionStore;
 import org.apache.activemq.store.kahadb.data.KahaTransactionInfo;
 import org.apache.activemq.store.kahadb.data.KahaXATransactionId;
 import org.apache.activemq.usage.SystemUsage;
+import org.apache.activemq.util.IOExceptionSupport;
 import org.apache.activemq.util.IOHelper;
 import org.apache.activemq.util.IntrospectionSupport;
+import org.apache.activemq.util.JMXSupport;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -65,8 +79,19 @@ final static ActiveMQDestination matchAll = new AnyDestination(new ActiveMQDesti
 final int LOCAL_FORMAT_ID_MAGIC = Integer.valueOf(System.getProperty("org.apache.activemq.store.kahadb.MultiKahaDBTransactionStore.localXaFormatId", "61616"));
 
 BrokerService brokerService;
-List<KahaDBPersistenceAdapter> adapters = new LinkedList<KahaDBPersistenceAdapter>();
+// copy on write as per destination adapters are added while others iterate
+List<KahaDBPersistenceAdapter> adapters = new CopyOnWriteArrayList<KahaDBPersistenceAdapter>();
 private File directory = new File(IOHelper.getDefaultDataDirectory() + File.separator + "mKahaDB");
+// destination to adapter, saves a filter match per store creation
+private final Map<ActiveMQDestination, FilteredKahaDBPersistenceAdapter> routes = new ConcurrentHashMap<ActiveMQDestination, FilteredKahaDBPersistenceAdapter>();
+private final ConcurrentHashMap<KahaDBPersistenceAdapter, AdapterTiming> timings = new ConcurrentHashMap<KahaDBPersistenceAdapter, AdapterTiming>();
+private int lifecycleThreads = 1;
+// runs per adapter operations while started, see forEachAdapter
+private volatile ExecutorService lifecycleExecutor;
+private volatile long lastStartTime;
+private volatile long lastCheckpointTime;
+private volatile long lastStopTime;
+private ObjectName objectName;
 
 MultiKahaDBTransactionStore transactionStore = new MultiKahaDBTransactionStore(this);
 
@@ -121,6 +146,7 @@ configureAdapter(adapter);
 adapters.add(adapter);
 }
 super.setEntries(entries);
+routes.clear();
 }
 
 private String nameFromDestinationFilter(ActiveMQDestination destination) {
@@ -144,9 +170,22 @@ throw new IllegalStateException();
 
 @Override
 public void checkpoint(final boolean sync) throws IOException {
-for (PersistenceAdapter persistenceAdapter : adapters) {
-persistenceAdapter.checkpoint(sync);
+long start = System.currentTimeMillis();
+try {
+forEachAdapter(adapters, new AdapterTask() {
+@Override
+public void run(KahaDBPersistenceAdapter adapter) throws Exception {
+long adapterStart = System.currentTimeMillis();
+adapter.checkpoint(sync);
+timingOf(adapter).checkpointTime = System.currentTimeMillis() - adapterStart;
+}
+});
+} catch (IOException e) {
+throw e;
+} catch (Exception e) {
+throw IOExceptionSupport.create(e);
 }
+lastCheckpointTime = System.currentTimeMillis() - start;
 }
 
 @Override
@@ -161,6 +200,21 @@ return transactionStore.proxy(persistenceAdapter.createTransactionStore(), persi
 }
 
 private PersistenceAdapter getMatchingPersistenceAdapter(ActiveMQDestination destination) {
+FilteredKahaDBPersistenceAdapter route = routes.get(destination);
+if (route != null) {
+return route.getPersistenceAdapter();
+}
+synchronized (this) {
+route = routes.get(destination);
+if (route == null) {
+route = chooseAdapter(destination);
+routes.put(destination, route);
+}
+}
+return route.getPersistenceAdapter();
+}
+
+private FilteredKahaDBPersistenceAdapter chooseAdapter(ActiveMQDestination destination) {
 Object result = this.chooseValue(destination);
 if (result == null) {
 throw new RuntimeException("No matching persistence adapter configured for destination: " + destination + ", options:" + adapters);
@@ -173,12 +227,14 @@ if (LOG.isTraceEnabled()) {
 LOG.info("created per destination adapter for: " + destination  + ", " + result);
 }
 }
-return ((FilteredKahaDBPersistenceAdapter) result).getPersistenceAdapter();
+return (FilteredKahaDBPersistenceAdapter) result;
 }
 
 private void startAdapter(KahaDBPersistenceAdapter kahaDBPersistenceAdapter, String destination) {
 try {
+long start = System.currentTimeMillis();
 kahaDBPersistenceAdapter.start();
+timingOf(kahaDBPersistenceAdapter).startTime = System.currentTimeMillis() - start;
 } catch (Exception e) {
 RuntimeException detail = new RuntimeException("Failed to start per destination persistence adapter for destination: " + destination + ", options:" + adapters, e);
 LOG.error(detail.toString(), e);
@@ -188,7 +244,9 @@ throw detail;
 
 private void stopAdapter(KahaDBPersistenceAdapter kahaDBPersistenceAdapter, String destination) {
 try {
+long start = System.currentTimeMillis();
 kahaDBPersistenceAdapter.stop();
+timingOf(kahaDBPersistenceAdapter).stopTime = System.currentTimeMillis() - start;
 } catch (Exception e) {
 RuntimeException detail = new RuntimeException("Failed to stop per destination persistence adapter for destination: " + destination + ", options:" + adapters, e);
 LOG.error(detail.toString(), e);
@@ -227,11 +285,23 @@ return results;
 
 @Override
 public long getLastMessageBrokerSequenceId() throws IOException {
-long maxId = -1;
-for (PersistenceAdapter persistenceAdapter : adapters) {
-maxId = Math.max(maxId, persistenceAdapter.getLastMessageBrokerSequenceId());
+final long[] maxId = new long[] {-1};
+try {
+forEachAdapter(adapters, new AdapterTask() {
+@Override
+public void run(KahaDBPersistenceAdapter adapter) throws Exception {
+long id = adapter.getLastMessageBrokerSequenceId();
+synchronized (maxId) {
+maxId[0] = Math.max(maxId[0], id);
 }
-return maxId;
+}
+});
+} catch (IOException e) {
+throw e;
+} catch (Exception e) {
+throw IOExceptionSupport.create(e);
+}
+return maxId[0];
 }
 
 @Override
@@ -250,6 +320,7 @@ if (adapter instanceof KahaDBPersistenceAdapter) {
 adapter.removeQueueMessageStore(destination);
 removeMessageStore((KahaDBPersistenceAdapter)adapter, destination);
 removeAll(destination);
+routes.remove(destination);
 }
 }
 
@@ -260,12 +331,14 @@ if (adapter instanceof KahaDBPersistenceAdapter) {
 adapter.removeTopicMessageStore(destination);
 removeMessageStore((KahaDBPersistenceAdapter)adapter, destination);
 removeAll(destination);
+routes.remove(destination);
 }
 }
 
 private void removeMessageStore(KahaDBPersistenceAdapter adapter, ActiveMQDestination destination) {
 if (adapter.getDestinations().isEmpty()) {
 stopAdapter(adapter, destination.toString());
+timings.remove(adapter);
 File adapterDir = adapter.getDirectory();
 if (adapterDir != null) {
 if (IOHelper.deleteFile(adapterDir)) {
@@ -311,6 +384,10 @@ return size;
 
 @Override
 public void start() throws Exception {
+long start = System.currentTimeMillis();
+if (lifecycleThreads > 1 && lifecycleExecutor == null) {
+lifecycleExecutor = createLifecycleExecutor();
+}
 Object result = this.chooseValue(matchAll);
 if (result != null) {
 FilteredKahaDBPersistenceAdapter filteredAdapter = (FilteredKahaDBPersistenceAdapter) result;
@@ -318,12 +395,19 @@ if (filteredAdapter.getDestination() == matchAll && filteredAdapter.isPerDestina
 findAndRegisterExistingAdapters(filteredAdapter);
 }
 }
-for (PersistenceAdapter persistenceAdapter : adapters) {
-persistenceAdapter.start();
+forEachAdapter(adapters, new AdapterTask() {
+@Override
+public void run(KahaDBPersistenceAdapter adapter) throws Exception {
+long adapterStart = System.currentTimeMillis();
+adapter.start();
+timingOf(adapter).startTime = System.currentTimeMillis() - adapterStart;
 }
+});
+lastStartTime = System.currentTimeMillis() - start;
+registerMBean();
 }
 
-private void findAndRegisterExistingAdapters(FilteredKahaDBPersistenceAdapter template) {
+private void findAndRegisterExistingAdapters(FilteredKahaDBPersistenceAdapter template) throws Exception {
 FileFilter destinationNames = new FileFilter() {
 @Override
 public boolean accept(File file) {
@@ -332,20 +416,31 @@ return file.getName().startsWith("queue#") || file.getName().startsWith("topic#"
 };
 File[] candidates = template.getPersistenceAdapter().getDirectory().listFiles(destinationNames);
 if (candidates != null) {
+// recover the existing stores in parallel, then register them in
+// directory order
+List<KahaDBPersistenceAdapter> recovered = new ArrayList<KahaDBPersistenceAdapter>(candidates.length);
 for (File candidate : candidates) {
-registerExistingAdapter(template, candidate);
+recovered.add(adapterFromTemplate(template.getPersistenceAdapter(), candidate.getName()));
+}
+forEachAdapter(recovered, new AdapterTask() {
+@Override
+public void run(KahaDBPersistenceAdapter adapter) throws Exception {
+startAdapter(adapter, adapter.getDirectory().getName());
+}
+});
+for (KahaDBPersistenceAdapter adapter : recovered) {
+registerExistingAdapter(adapter);
 }
 }
 }
 
-private void registerExistingAdapter(FilteredKahaDBPersistenceAdapter filteredAdapter, File candidate) {
-KahaDBPersistenceAdapter adapter = adapterFromTemplate(filteredAdapter.getPersistenceAdapter(), candidate.getName());
-startAdapter(adapter, candidate.getName());
+private void registerExistingAdapter(KahaDBPersistenceAdapter adapter) {
 Set<ActiveMQDestination> destinations = adapter.getDestinations();
 if (destinations.size() != 0) {
 registerAdapter(adapter, destinations.toArray(new ActiveMQDestination[]{})[0]);
 } else {
-stopAdapter(adapter, candidate.getName());
+stopAdapter(adapter, adapter.getDirectory().getName());
+timings.remove(adapter);
 }
 }
 
@@ -379,6 +474,7 @@ private FilteredKahaDBPersistenceAdapter registerAdapter(KahaDBPersistenceAdapte
 adapters.add(adapter);
 FilteredKahaDBPersistenceAdapter result = new FilteredKahaDBPersistenceAdapter(destination, adapter);
 put(destination, result);
+routes.remove(destination);
 return result;
 }
 
@@ -398,8 +494,129 @@ return adapter;
 
 @Override
 public void stop() throws Exception {
-for (PersistenceAdapter persistenceAdapter : adapters) {
-persistenceAdapter.stop();
+unregisterMBean();
+long start = System.currentTimeMillis();
+try {
+forEachAdapter(adapters, new AdapterTask() {
+@Override
+public void run(KahaDBPersistenceAdapter adapter) throws Exception {
+long adapterStart = System.currentTimeMillis();
+adapter.stop();
+timingOf(adapter).stopTime = System.currentTimeMillis() - adapterStart;
+}
+});
+} finally {
+ExecutorService executor = lifecycleExecutor;
+lifecycleExecutor = null;
+if (executor != null) {
+executor.shutdown();
+}
+}
+lastStopTime = System.currentTimeMillis() - start;
+}
+
+/**
+* An operation applied to each adapter by the lifecycle methods.
+*/
+private interface AdapterTask {
+void run(KahaDBPersistenceAdapter adapter) throws Exception;
+}
+
+private ExecutorService createLifecycleExecutor() {
+final AtomicInteger threadCount = new AtomicInteger();
+return Executors.newFixedThreadPool(lifecycleThreads, new ThreadFactory() {
+@Override
+public Thread newThread(Runnable runnable) {
+Thread thread = new Thread(runnable, "MultiKahaDB lifecycle " + threadCount.incrementAndGet() + ": " + getDirectory());
+thread.setDaemon(true);
+return thread;
+}
+});
+}
+
+/**
+* Runs the task for each adapter, on the lifecycleThreads threads of the
+* pool that lives from start to stop, or on the calling thread when there
+* is no pool. Every adapter is visited even if the task fails for some of
+* them, the first failure is then rethrown.
+*/
+private void forEachAdapter(List<KahaDBPersistenceAdapter> targets, final AdapterTask task) throws Exception {
+ExecutorService executor = lifecycleExecutor;
+if (executor == null || targets.size() <= 1) {
+for (KahaDBPersistenceAdapter adapter : targets) {
+task.run(adapter);
+}
+return;
+}
+List<Future<Object>> results = new ArrayList<Future<Object>>(targets.size());
+for (final KahaDBPersistenceAdapter adapter : targets) {
+results.add(executor.submit(new Callable<Object>() {
+@Override
+public Object call() throws Exception {
+task.run(adapter);
+return null;
+}
+}));
+}
+Exception failure = null;
+for (Future<Object> result : results) {
+try {
+result.get();
+} catch (ExecutionException e) {
+if (failure == null) {
+failure = e.getCause() instanceof Exception ? (Exception) e.getCause() : e;
+}
+}
+}
+if (failure != null) {
+throw failure;
+}
+}
+
+private AdapterTiming timingOf(KahaDBPersistenceAdapter adapter) {
+AdapterTiming timing = timings.get(adapter);
+if (timing == null) {
+timing = new AdapterTiming();
+AdapterTiming existing = timings.putIfAbsent(adapter, timing);
+if (existing != null) {
+timing = existing;
+}
+}
+return timing;
+}
+
+/**
+* Time in milliseconds of the last lifecycle operations of an adapter.
+*/
+private static final class AdapterTiming {
+volatile long startTime;
+volatile long checkpointTime;
+volatile long stopTime;
+}
+
+private void registerMBean() {
+if (brokerService == null || !brokerService.isUseJmx() || objectName != null) {
+return;
+}
+try {
+ObjectName name = new ObjectName(brokerService.getBrokerObjectName() + ",service=PersistenceAdapter,instanceName=" + JMXSupport.encodeObjectNamePart("mKahaDB-" + getDirectory().getName()));
+AnnotatedMBean.registerMBean(brokerService.getManagementContext(), new MultiKahaDBPersistenceAdapterView(this), name);
+objectName = name;
+} catch (Throwable e) {
+LOG.warn("Failed to register MBean for " + this + ": " + e);
+}
+}
+
+private void unregisterMBean() {
+if (objectName == null) {
+return;
+}
+try {
+brokerService.getManagementContext().unregisterMBean(objectName);
+} catch (Throwable e) {
+LOG.warn("Failed to unregister MBean " + objectName + ": " + e);
+} finally {
+objectName = null;
 }
 }
 
@@ -425,6 +642,50 @@ public BrokerService getBrokerService() {
 return brokerService;
 }
 
+public int getLifecycleThreads() {
+return lifecycleThreads;
+}
+
+/**
+* Sets the number of threads used to start, recover, checkpoint and stop the
+* adapters in parallel, defaults to 1 which handles them one at a time.
+*/
+public void setLifecycleThreads(int lifecycleThreads) {
+this.lifecycleThreads = lifecycleThreads;
+}
+
+public long getLastStartTime() {
+return lastStartTime;
+}
+
+public long getLastCheckpointTime() {
+return lastCheckpointTime;
+}
+
+public long getLastStopTime() {
+return lastStopTime;
+}
+
+public int getRoutingCacheSize() {
+return routes.size();
+}
+
+/**
+* @return the time in milliseconds of the last start, checkpoint and stop
+*         of each adapter, keyed by its directory
+*/
+public String[] getAdapterTimings() {
+List<String> result = new ArrayList<String>();
+for (KahaDBPersistenceAdapter adapter : adapters) {
+AdapterTiming timing = timings.get(adapter);
+if (timing == null) {
+timing = new AdapterTiming();
+}
+result.add(adapter.getDirectory() + ": start=" + timing.startTime + "ms, checkpoint=" + timing.checkpointTime + "ms, stop=" + timing.stopTime + "ms");
+}
+return result.toArray(new String[result.size()]);
+}
+
 public void setTransactionStore(MultiKahaDBTransactionStore transactionStore) {
 this.transactionStore = transactionStore;
 }
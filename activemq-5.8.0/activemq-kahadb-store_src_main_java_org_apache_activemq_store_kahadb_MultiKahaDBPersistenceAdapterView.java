@@ -0,0 +1,61 @@
+/**
+* Licensed to the Apache Software Foundation (ASF) under one or more
+* contributor license agreements.  See the NOTICE file distributed with
+* this work for additional information regarding copyright ownership.
+* The ASF licenses this file to You under the Apache License, Version 2.0
+* (the "License"); you may not use this file except in compliance with
+* the License.  You may obtain a copy of the License at
+*
+*      http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+package org.apache.activemq.store.kahadb;
+
+public class MultiKahaDBPersistenceAdapterView implements MultiKahaDBPersistenceAdapterViewMBean {
+
+private final MultiKahaDBPersistenceAdapter adapter;
+
+public MultiKahaDBPersistenceAdapterView(MultiKahaDBPersistenceAdapter adapter) {
+this.adapter = adapter;
+}
+
+@Override
+public int getAdapterCount() {
+return adapter.adapters.size();
+}
+
+@Override
+public int getLifecycleThreads() {
+return adapter.getLifecycleThreads();
+}
+
+@Override
+public long getLastStartTime() {
+return adapter.getLastStartTime();
+}
+
+@Override
+public long getLastCheckpointTime() {
+return adapter.getLastCheckpointTime();
+}
+
+@Override
+public long getLastStopTime() {
+return adapter.getLastStopTime();
+}
+
+@Override
+public int getRoutingCacheSize() {
+return adapter.getRoutingCacheSize();
+}
+
+@Override
+public String[] getAdapterTimings() {
+return adapter.getAdapterTimings();
+}
+}
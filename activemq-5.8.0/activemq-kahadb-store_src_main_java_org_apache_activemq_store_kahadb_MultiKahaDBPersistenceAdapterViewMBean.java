@@ -0,0 +1,43 @@
+/**
+* Licensed to the Apache Software Foundation (ASF) under one or more
+* contributor license agreements.  See the NOTICE file distributed with
+* this work for additional information regarding copyright ownership.
+* The ASF licenses this file to You under the Apache License, Version 2.0
+* (the "License"); you may not use this file except in compliance with
+* the License.  You may obtain a copy of the License at
+*
+*      http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+package org.apache.activemq.store.kahadb;
+
+import org.apache.activemq.broker.jmx.MBeanInfo;
+
+public interface MultiKahaDBPersistenceAdapterViewMBean {
+
+@MBeanInfo("Number of KahaDB persistence adapters.")
+int getAdapterCount();
+
+@MBeanInfo("Number of threads used to start, checkpoint and stop the adapters.")
+int getLifecycleThreads();
+
+@MBeanInfo("Time in milliseconds the last start took, including recovery of per destination adapters.")
+long getLastStartTime();
+
+@MBeanInfo("Time in milliseconds the last checkpoint took.")
+long getLastCheckpointTime();
+
+@MBeanInfo("Time in milliseconds the last stop took.")
+long getLastStopTime();
+
+@MBeanInfo("Number of destinations whose adapter is held in the routing cache.")
+int getRoutingCacheSize();
+
+@MBeanInfo("Time in milliseconds of the last start, checkpoint and stop of each adapter.")
+String[] getAdapterTimings();
+}
@@ -123,6 +123,7 @@ private final BTreeNode.Marshaller<Key, Value> marshaller = new BTreeNode.Marsha
 private Marshaller<Key> keyMarshaller;
 private Marshaller<Value> valueMarshaller;
 private Prefixer<Key> prefixer;
+private boolean prefixCompression;
 
 public BTreeIndex() {
 }
@@ -322,6 +323,19 @@ public void setPrefixer(Prefixer<Key> prefixer) {
 this.prefixer = prefixer;
 }
 
+public boolean isPrefixCompression() {
+return prefixCompression;
+}
+/**
+* When enabled, String keys are stored front coded: each key only stores the
+* characters that follow the prefix it shares with the previous key in the
+* node. Long repetitive keys then fit more entries in each page. Nodes
+* written either way can always be read back.
+*/
+public void setPrefixCompression(boolean prefixCompression) {
+this.prefixCompression = prefixCompression;
+}
+
 public void setPageFile(PageFile pageFile) {
 this.pageFile = pageFile;
 }
@@ -158,10 +158,23 @@ if( count != node.keys.length ) {
 throw new IOException("Too many keys");
 }
 
+if( index.isPrefixCompression() && count > 0 && node.keys[0] instanceof String ) {
+// a negative count flags the prefix compressed key format
+os.writeShort(-count-1);
+String previous = "";
+for (int i = 0; i < node.keys.length; i++) {
+String key = (String)node.keys[i];
+int shared = commonPrefixLength(previous, key);
+os.writeShort(shared);
+os.writeUTF(key.substring(shared));
+previous = key;
+}
+} else {
 os.writeShort(count);
 for (int i = 0; i < node.keys.length; i++) {
 index.getKeyMarshaller().writePayload(node.keys[i], os);
 }
+}
 
 if( node.isBranch() ) {
 // If this is a branch...
@@ -185,10 +198,21 @@ public BTreeNode<Key,Value> readPayload(DataInput is) throws IOException {
 BTreeNode<Key,Value>  node = new BTreeNode<Key,Value>(index);
 int count = is.readShort();
 
+if( count < 0 ) {
+count = -count-1;
+node.keys = (Key[])new Object[count];
+String previous = "";
+for (int i = 0; i < count; i++) {
+int shared = is.readShort();
+previous = previous.substring(0, shared) + is.readUTF();
+node.keys[i] = (Key)previous;
+}
+} else {
 node.keys = (Key[])new Object[count];
 for (int i = 0; i < count; i++) {
 node.keys[i] = index.getKeyMarshaller().readPayload(is);
 }
+}
 
 if( is.readBoolean() ) {
 node.children = new long[count+1];
@@ -204,6 +228,15 @@ node.next = is.readLong();
 }
 return node;
 }
+
+private static int commonPrefixLength(String value1, String value2) {
+int n = Math.min(Math.min(value1.length(), value2.length()), Short.MAX_VALUE);
+int i = 0;
+while (i < n && value1.charAt(i) == value2.charAt(i)) {
+i++;
+}
+return i;
+}
 }
 
 public BTreeNode(BTreeIndex<Key,Value> index) {
@@ -98,8 +98,9 @@ private final ConcurrentHashMap<ConsumerId, MQTTSubscription> subscriptionsByCon
 private final ConcurrentHashMap<UTF8Buffer, MQTTSubscription> mqttSubscriptionByTopic = new ConcurrentHashMap<UTF8Buffer, MQTTSubscription>();
 private final Map<UTF8Buffer, ActiveMQTopic> activeMQTopicMap = new LRUCache<UTF8Buffer, ActiveMQTopic>(DEFAULT_CACHE_SIZE);
 private final Map<Destination, UTF8Buffer> mqttTopicMap = new LRUCache<Destination, UTF8Buffer>(DEFAULT_CACHE_SIZE);
-private final Map<Short, MessageAck> consumerAcks = new LRUCache<Short, MessageAck>(DEFAULT_CACHE_SIZE);
-private final Map<Short, PUBREC> publisherRecs = new LRUCache<Short, PUBREC>(DEFAULT_CACHE_SIZE);
+// keyed by the 16 bit MQTT message id, so never more than 64k entries
+private final ConcurrentHashMap<Short, MessageAck> consumerAcks = new ConcurrentHashMap<Short, MessageAck>();
+private final ConcurrentHashMap<Short, PUBREC> publisherRecs = new ConcurrentHashMap<Short, PUBREC>();
 private final MQTTTransport mqttTransport;
 
 private final Object commnadIdMutex = new Object();
@@ -364,10 +365,8 @@ if (sub != null) {
 MessageAck ack = sub.createMessageAck(md);
 PUBLISH publish = sub.createPublish((ActiveMQMessage) md.getMessage());
 if (ack != null && sub.expectAck(publish)) {
-synchronized (consumerAcks) {
 consumerAcks.put(publish.messageId(), ack);
 }
-}
 getMQTTTransport().sendToMQTT(publish.encode());
 if (ack != null && !sub.expectAck(publish)) {
 getMQTTTransport().sendToActiveMQ(ack);
@@ -394,10 +393,7 @@ sendToActiveMQ(message, createResponseHandler(command));
 
 void onMQTTPubAck(PUBACK command) {
 short messageId = command.messageId();
-MessageAck ack;
-synchronized (consumerAcks) {
-ack = consumerAcks.remove(messageId);
-}
+MessageAck ack = consumerAcks.remove(messageId);
 if (ack != null) {
 getMQTTTransport().sendToActiveMQ(ack);
 }
@@ -411,10 +407,7 @@ sendToMQTT(pubrel.encode());
 }
 
 void onMQTTPubRel(PUBREL command) {
-PUBREC ack;
-synchronized (publisherRecs) {
-ack = publisherRecs.remove(command.messageId());
-}
+PUBREC ack = publisherRecs.remove(command.messageId());
 if (ack == null) {
 LOG.warn("Unknown PUBREL: " + command.messageId() + " received");
 }
@@ -425,10 +418,7 @@ sendToMQTT(pubcomp.encode());
 
 void onMQTTPubComp(PUBCOMP command) {
 short messageId = command.messageId();
-MessageAck ack;
-synchronized (consumerAcks) {
-ack = consumerAcks.remove(messageId);
-}
+MessageAck ack = consumerAcks.remove(messageId);
 if (ack != null) {
 getMQTTTransport().sendToActiveMQ(ack);
 }
@@ -455,7 +445,12 @@ activeMQTopicMap.put(command.topicName(), topic);
 }
 }
 msg.setJMSDestination(topic);
-msg.writeBytes(command.payload().data, command.payload().offset, command.payload().length);
+// the payload is a slice of a buffer decoded for this frame alone, so the
+// message can take it as its content without writing it out again
+Buffer payload = command.payload();
+if (payload != null) {
+msg.setContent(new ByteSequence(payload.data, payload.offset, payload.length));
+}
 return msg;
 }
 
@@ -490,6 +485,13 @@ String messageText = msg.getText();
 if (messageText != null) {
 result.payload(new Buffer(messageText.getBytes("UTF-8")));
 }
+} else if (message.getDataStructureType() == ActiveMQBytesMessage.DATA_STRUCTURE_TYPE && !message.isCompressed()) {
+// the body of an uncompressed bytes message is the raw payload, such as
+// one published over MQTT, so it can be written out as it is
+ByteSequence byteSequence = message.getContent();
+if (byteSequence != null) {
+result.payload(new Buffer(byteSequence.data, byteSequence.offset, byteSequence.length));
+}
 } else if (message.getDataStructureType() == ActiveMQBytesMessage.DATA_STRUCTURE_TYPE) {
 ActiveMQBytesMessage msg = (ActiveMQBytesMessage) message.copy();
 msg.setReadOnlyBody(true);
@@ -654,9 +656,7 @@ LOG.warn("Failed to send MQTT Publish: ", command, ((ExceptionResponse) response
 } else {
 PUBREC ack = new PUBREC();
 ack.messageId(command.messageId());
-synchronized (publisherRecs) {
 publisherRecs.put(command.messageId(), ack);
-}
 converter.getMQTTTransport().sendToMQTT(ack.encode());
 }
 }